@@ -0,0 +1,179 @@
+package com.kvitkadev.peopledb.repository;
+
+import com.kvitkadev.peopledb.model.CrudOperation;
+import com.kvitkadev.peopledb.model.Person;
+import com.kvitkadev.peopledb.schema.SchemaBootstrap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Repository hot paths against an in-memory H2 seeded with {@value #SEED_PEOPLE} people, one of them with
+ * {@value #CHILDREN} children. Rows added by the save benchmarks are removed after every iteration.
+ * <p>
+ * Run with {@code ./gradlew jmh}; the gc profiler adds allocation rates ({@code gc.alloc.rate.norm}) per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PeopleRepositoryBenchmark {
+    static final int SEED_PEOPLE = 10_000;
+    static final int CHILDREN = 4;
+    static final int BATCH = 100;
+    private static final ZonedDateTime DOB = ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"));
+
+    private Connection connection;
+    private PeopleRepository repository;
+    private long lastSeedId;
+    private long parentId;
+    private long childlessId;
+    private Person parent;
+    private PreparedStatement findByIdStatement;
+    private ResultSet parentRows;
+
+    @Setup(Level.Trial)
+    public void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:peopledb-bench");
+        SchemaBootstrap.ensure(connection);
+        repository = new PeopleRepository(connection);
+        repository.saveAll(newPeople(SEED_PEOPLE));
+        childlessId = repository.save(newPerson()).getId();
+        Person family = newPerson();
+        for (int i = 0; i < CHILDREN; i++) {
+            family.addChild(newPerson());
+        }
+        parent = repository.save(family);
+        parentId = parent.getId();
+        lastSeedId = family.getChildren().stream().mapToLong(Person::getId).max().orElse(parentId);
+
+        findByIdStatement = connection.prepareStatement(repository.getSqlByAnnotation(CrudOperation.FIND_BY_ID),
+                ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY);
+        findByIdStatement.setLong(1, parentId);
+        parentRows = findByIdStatement.executeQuery();
+    }
+
+    @TearDown(Level.Iteration)
+    public void removeSavedPeople() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DELETE FROM PEOPLE WHERE ID > " + lastSeedId);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws SQLException {
+        parentRows.close();
+        findByIdStatement.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public Person saveOne() {
+        return repository.save(newPerson());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void saveOneByOne() {
+        for (Person person : newPeople(BATCH)) {
+            repository.save(person);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public long saveAllBatched() {
+        return repository.saveAll(newPeople(BATCH));
+    }
+
+    @Benchmark
+    public Optional<Person> findByIdWithoutChildren() {
+        return repository.findById(childlessId);
+    }
+
+    @Benchmark
+    public Optional<Person> findByIdWithChildren() {
+        return repository.findById(parentId);
+    }
+
+    @Benchmark
+    public List<Person> findAll() {
+        return repository.findAll();
+    }
+
+    @Benchmark
+    public long count() {
+        return repository.count();
+    }
+
+    /**
+     * Saves {@value #BATCH} people in one batch and deletes them with one varargs call.
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void saveAllThenDeleteVarargs() {
+        List<Person> people = newPeople(BATCH);
+        repository.saveAll(people);
+        repository.delete(people.toArray(Person[]::new));
+    }
+
+    /**
+     * Maps the parent's {@value #CHILDREN} joined rows from an already executed result set, without a round trip.
+     */
+    @Benchmark
+    public Person extractEntityFromResultSet() throws SQLException {
+        parentRows.absolute(1);
+        return repository.extractEntityFromResultSet(parentRows);
+    }
+
+    @Benchmark
+    public Person compiledRowMapper() throws SQLException {
+        parentRows.absolute(1);
+        return repository.rowMapper(CrudOperation.FIND_BY_ID, parentRows).mapEntity(parentRows);
+    }
+
+    @Benchmark
+    public String getSqlByAnnotation() {
+        return repository.getSqlByAnnotation(CrudOperation.FIND_BY_ID);
+    }
+
+    @Benchmark
+    public Long getIdByAnnotation() {
+        return repository.getIdByAnnotation(parent);
+    }
+
+    private static List<Person> newPeople(int count) {
+        List<Person> people = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            people.add(newPerson());
+        }
+        return people;
+    }
+
+    private static Person newPerson() {
+        Person person = new Person("John", "Smith", DOB);
+        person.setSalary(new BigDecimal("50000.00"));
+        person.setEmail("john.smith@example.com");
+        return person;
+    }
+}
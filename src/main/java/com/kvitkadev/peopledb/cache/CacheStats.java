@@ -0,0 +1,19 @@
+package com.kvitkadev.peopledb.cache;
+
+import java.time.Duration;
+
+/**
+ * Point-in-time counters of an {@link EntityCache}.
+ */
+public record CacheStats(long hits, long misses, long evictions, long invalidations, long loads,
+                         long totalLoadNanos, int size) {
+
+    public double hitRate() {
+        long requests = hits + misses;
+        return requests == 0 ? 0.0 : (double) hits / requests;
+    }
+
+    public Duration averageLoadTime() {
+        return loads == 0 ? Duration.ZERO : Duration.ofNanos(totalLoadNanos / loads);
+    }
+}
@@ -0,0 +1,148 @@
+package com.kvitkadev.peopledb.cache;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * Bounded, thread-safe cache of entities by id, with least-recently-used eviction and an optional
+ * time to live. Repositories consult it in {@code findById} and invalidate ids they write or delete.
+ * <p>
+ * Repositories cache private copies and hand out a fresh copy on every hit, so callers never share
+ * a cached instance. An entry may name the ids of related entities it was built from (e.g. a person's
+ * spouse and children); invalidating one of those ids evicts the entry as well.
+ */
+public class EntityCache<T> {
+    private record Entry<T>(T value, long expiresAtNanos, Collection<Long> relatedIds) {
+    }
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final LinkedHashMap<Long, Entry<T>> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Long, Set<Long>> referrers = new HashMap<>();
+    private final AtomicLong invalidationCount = new AtomicLong();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder loads = new LongAdder();
+    private final LongAdder loadNanos = new LongAdder();
+
+    public EntityCache(int maxSize) {
+        this(maxSize, Duration.ZERO);
+    }
+
+    /**
+     * @param ttl how long an entity stays cached after it was loaded, {@link Duration#ZERO} for no expiry
+     */
+    public EntityCache(int maxSize, Duration ttl) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Cache size must be positive: " + maxSize);
+        }
+        this.maxSize = maxSize;
+        this.ttlNanos = ttl.toNanos();
+    }
+
+    /**
+     * Returns the cached entity or loads it. The loader runs outside the cache lock; its result is
+     * not cached if any id was invalidated while it was running, since it may already be stale.
+     */
+    public Optional<T> get(Long id, Function<Long, Optional<T>> loader) {
+        return get(id, loader, value -> List.of());
+    }
+
+    /**
+     * Same as {@link #get(Long, Function)}, remembering the ids the loaded entity refers to so that
+     * invalidating any of them also evicts it.
+     */
+    public Optional<T> get(Long id, Function<Long, Optional<T>> loader,
+                           Function<? super T, ? extends Collection<Long>> relatedIds) {
+        T cached = getIfPresent(id);
+        if (cached != null) {
+            hits.increment();
+            return Optional.of(cached);
+        }
+        misses.increment();
+        long invalidationsBefore = invalidationCount.get();
+        long start = System.nanoTime();
+        Optional<T> loaded = loader.apply(id);
+        long now = System.nanoTime();
+        loads.increment();
+        loadNanos.add(now - start);
+        if (loaded.isPresent()) {
+            put(id, loaded.get(), List.copyOf(relatedIds.apply(loaded.get())), now, invalidationsBefore);
+        }
+        return loaded;
+    }
+
+    private synchronized T getIfPresent(Long id) {
+        Entry<T> entry = entries.get(id);
+        if (entry == null) return null;
+        if (ttlNanos > 0 && System.nanoTime() - entry.expiresAtNanos > 0) {
+            remove(id);
+            evictions.increment();
+            return null;
+        }
+        return entry.value();
+    }
+
+    private synchronized void put(Long id, T value, Collection<Long> relatedIds, long now, long invalidationsBefore) {
+        if (invalidationCount.get() != invalidationsBefore) return;
+        remove(id);
+        entries.put(id, new Entry<>(value, now + ttlNanos, relatedIds));
+        for (Long relatedId : relatedIds) {
+            referrers.computeIfAbsent(relatedId, key -> new HashSet<>()).add(id);
+        }
+        while (entries.size() > maxSize) {
+            remove(entries.keySet().iterator().next());
+            evictions.increment();
+        }
+    }
+
+    private void remove(Long id) {
+        Entry<T> entry = entries.remove(id);
+        if (entry == null) return;
+        for (Long relatedId : entry.relatedIds()) {
+            Set<Long> referring = referrers.get(relatedId);
+            if (referring != null && referring.remove(id) && referring.isEmpty()) {
+                referrers.remove(relatedId);
+            }
+        }
+    }
+
+    /**
+     * Evicts the entity with this id and every entry that refers to it.
+     */
+    public synchronized void invalidate(Long id) {
+        if (id == null) return;
+        invalidationCount.incrementAndGet();
+        remove(id);
+        Set<Long> referring = referrers.remove(id);
+        if (referring != null) {
+            List.copyOf(referring).forEach(this::remove);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        invalidationCount.incrementAndGet();
+        entries.clear();
+        referrers.clear();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public CacheStats stats() {
+        return new CacheStats(hits.sum(), misses.sum(), evictions.sum(), invalidationCount.get(), loads.sum(),
+                loadNanos.sum(), size());
+    }
+}
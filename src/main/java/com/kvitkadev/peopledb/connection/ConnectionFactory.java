@@ -0,0 +1,9 @@
+package com.kvitkadev.peopledb.connection;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface ConnectionFactory {
+    Connection create() throws SQLException;
+}
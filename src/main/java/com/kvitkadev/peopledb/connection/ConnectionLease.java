@@ -0,0 +1,19 @@
+package com.kvitkadev.peopledb.connection;
+
+import com.kvitkadev.peopledb.repository.StatementCache;
+
+import java.sql.Connection;
+
+/**
+ * A connection borrowed from a {@link ConnectionProvider} together with its statement cache.
+ * Closing the lease hands the connection back; it never closes the connection itself.
+ */
+public interface ConnectionLease extends AutoCloseable {
+
+    Connection connection();
+
+    StatementCache statements();
+
+    @Override
+    void close();
+}
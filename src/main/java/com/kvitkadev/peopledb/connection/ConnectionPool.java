@@ -0,0 +1,231 @@
+package com.kvitkadev.peopledb.connection;
+
+import com.kvitkadev.peopledb.exception.DataException;
+import com.kvitkadev.peopledb.repository.StatementCache;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lightweight fixed-size pool. Connections are opened lazily up to {@code maxSize}, each with its own
+ * {@link StatementCache}, and idle ones are handed out most-recently-used first to keep caches warm.
+ * <p>
+ * A lease belongs to the thread that acquired it: nested {@link #acquire()} calls on that thread get
+ * the same lease back, and the connection returns to the pool when the outermost lease is closed.
+ * The owner is tracked on the lease, so closing it on another thread, e.g. at the end of a stream handed to
+ * an executor, still returns the connection and never leaves the acquiring thread holding a stale lease.
+ */
+public class ConnectionPool implements ConnectionProvider, AutoCloseable {
+    static final long DEFAULT_ACQUIRE_TIMEOUT_MILLIS = 30_000;
+
+    private final ConnectionFactory factory;
+    private final int maxSize;
+    private final BlockingDeque<PooledLease> idle = new LinkedBlockingDeque<>();
+    private final AtomicInteger opened = new AtomicInteger();
+    private final ThreadLocal<PooledLease> current = new ThreadLocal<>();
+    private volatile long acquireTimeoutMillis = DEFAULT_ACQUIRE_TIMEOUT_MILLIS;
+    private volatile boolean closed;
+
+    public ConnectionPool(String url, int maxSize) {
+        this(() -> DriverManager.getConnection(url), maxSize);
+    }
+
+    public ConnectionPool(ConnectionFactory factory, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Pool size must be positive: " + maxSize);
+        }
+        this.factory = factory;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public ConnectionLease acquire() {
+        PooledLease lease = current.get();
+        if (lease != null) {
+            if (lease.reenter()) {
+                return lease;
+            }
+            current.remove();
+        }
+        if (closed) {
+            throw new DataException("Connection pool is closed");
+        }
+        lease = pollIdle();
+        if (lease == null) {
+            lease = open();
+        }
+        if (lease == null) {
+            lease = awaitIdle();
+        }
+        lease.take();
+        current.set(lease);
+        return lease;
+    }
+
+    private PooledLease pollIdle() {
+        PooledLease lease;
+        while ((lease = idle.pollFirst()) != null) {
+            if (isUsable(lease)) {
+                return lease;
+            }
+            discard(lease);
+        }
+        return null;
+    }
+
+    private PooledLease open() {
+        int count;
+        do {
+            count = opened.get();
+            if (count >= maxSize) {
+                return null;
+            }
+        } while (!opened.compareAndSet(count, count + 1));
+        try {
+            return new PooledLease(factory.create());
+        } catch (SQLException e) {
+            opened.decrementAndGet();
+            throw new DataException("Unable to open pooled connection", e);
+        }
+    }
+
+    private PooledLease awaitIdle() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(acquireTimeoutMillis);
+        try {
+            while (true) {
+                long remaining = deadline - System.nanoTime();
+                PooledLease lease = remaining > 0 ? idle.pollFirst(remaining, TimeUnit.NANOSECONDS) : null;
+                if (lease == null) {
+                    throw new DataException("Timed out after " + acquireTimeoutMillis
+                            + " ms waiting for one of " + maxSize + " pooled connections");
+                }
+                if (isUsable(lease)) {
+                    return lease;
+                }
+                discard(lease);
+                PooledLease replacement = open();
+                if (replacement != null) {
+                    return replacement;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataException("Interrupted while waiting for a pooled connection", e);
+        }
+    }
+
+    private static boolean isUsable(PooledLease lease) {
+        try {
+            return !lease.connection.isClosed();
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private void discard(PooledLease lease) {
+        opened.decrementAndGet();
+        lease.closeQuietly();
+    }
+
+    private void release(PooledLease lease) {
+        if (current.get() == lease) {
+            current.remove();
+        }
+        if (closed) {
+            discard(lease);
+        } else {
+            idle.offerFirst(lease);
+        }
+    }
+
+    @Override
+    public int maxConnections() {
+        return maxSize;
+    }
+
+    public int getOpenConnections() {
+        return opened.get();
+    }
+
+    public int getIdleConnections() {
+        return idle.size();
+    }
+
+    public void setAcquireTimeoutMillis(long acquireTimeoutMillis) {
+        this.acquireTimeoutMillis = acquireTimeoutMillis;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        PooledLease lease;
+        while ((lease = idle.pollFirst()) != null) {
+            discard(lease);
+        }
+    }
+
+    private final class PooledLease implements ConnectionLease {
+        private final Connection connection;
+        private final StatementCache statements;
+        private Thread owner;
+        private int depth;
+
+        private PooledLease(Connection connection) {
+            this.connection = connection;
+            this.statements = new StatementCache(connection);
+        }
+
+        @Override
+        public Connection connection() {
+            return connection;
+        }
+
+        @Override
+        public StatementCache statements() {
+            return statements;
+        }
+
+        private synchronized void take() {
+            owner = Thread.currentThread();
+            depth = 1;
+        }
+
+        /**
+         * @return whether the calling thread still owns the lease, in which case it is now held once more
+         */
+        private synchronized boolean reenter() {
+            if (owner != Thread.currentThread()) {
+                return false;
+            }
+            depth++;
+            return true;
+        }
+
+        @Override
+        public void close() {
+            synchronized (this) {
+                if (depth == 0) {
+                    throw new IllegalStateException("Connection lease is not held");
+                }
+                if (--depth > 0) {
+                    return;
+                }
+                owner = null;
+            }
+            release(this);
+        }
+
+        private void closeQuietly() {
+            statements.close();
+            try {
+                connection.close();
+            } catch (SQLException ignored) {
+            }
+        }
+    }
+}
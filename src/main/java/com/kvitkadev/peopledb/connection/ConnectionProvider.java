@@ -0,0 +1,17 @@
+package com.kvitkadev.peopledb.connection;
+
+/**
+ * Hands out connections to repositories, one {@link ConnectionLease} per operation.
+ * Implementations must be safe to use from several threads and must return the lease already held
+ * by the calling thread on nested calls, so that an operation and the operations it triggers
+ * (e.g. saving a spouse while saving a person) run on the same connection.
+ */
+public interface ConnectionProvider {
+
+    ConnectionLease acquire();
+
+    /**
+     * @return upper bound of connections that can be leased at the same time
+     */
+    int maxConnections();
+}
@@ -0,0 +1,77 @@
+package com.kvitkadev.peopledb.connection;
+
+import com.kvitkadev.peopledb.repository.StatementCache;
+
+import java.sql.Connection;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Shares one connection between threads by letting only one of them hold it at a time.
+ * This keeps repositories built on a plain {@link Connection} safe to share, and keeps
+ * the caller in charge of that connection's transaction.
+ * <p>
+ * The thread holding the lease gets it again on nested {@link #acquire()} calls. Ownership is tracked on the
+ * lease rather than by a lock, so the lease may be closed on any thread, e.g. by a stream finished elsewhere.
+ */
+public class SingleConnectionProvider implements ConnectionProvider {
+    private final Semaphore permit = new Semaphore(1, true);
+    private final Connection connection;
+    private final StatementCache statements;
+    private Thread owner;
+    private int depth;
+    private final ConnectionLease lease = new ConnectionLease() {
+        @Override
+        public Connection connection() {
+            return connection;
+        }
+
+        @Override
+        public StatementCache statements() {
+            return statements;
+        }
+
+        @Override
+        public void close() {
+            release();
+        }
+    };
+
+    public SingleConnectionProvider(Connection connection) {
+        this.connection = connection;
+        this.statements = new StatementCache(connection);
+    }
+
+    @Override
+    public ConnectionLease acquire() {
+        synchronized (this) {
+            if (owner == Thread.currentThread()) {
+                depth++;
+                return lease;
+            }
+        }
+        permit.acquireUninterruptibly();
+        synchronized (this) {
+            owner = Thread.currentThread();
+            depth = 1;
+        }
+        return lease;
+    }
+
+    private void release() {
+        synchronized (this) {
+            if (depth == 0) {
+                throw new IllegalStateException("Connection lease is not held");
+            }
+            if (--depth > 0) {
+                return;
+            }
+            owner = null;
+        }
+        permit.release();
+    }
+
+    @Override
+    public int maxConnections() {
+        return 1;
+    }
+}
@@ -0,0 +1,263 @@
+package com.kvitkadev.peopledb.ingest;
+
+import com.kvitkadev.peopledb.exception.DataException;
+import com.kvitkadev.peopledb.model.Person;
+import com.kvitkadev.peopledb.repository.PeopleRepository;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Loads a people CSV file into the database through three bounded stages:
+ * <ol>
+ *     <li>a reader thread that cuts the file into chunks of lines,</li>
+ *     <li>a pool of parser threads that turn line chunks into {@link Person} chunks,</li>
+ *     <li>the calling thread, which saves person chunks with {@link PeopleRepository#saveAll(Iterable)}
+ *     and commits every {@code commitInterval} people.</li>
+ * </ol>
+ * Stages are connected by bounded queues, so a slow database blocks the parsers and the reader
+ * instead of letting the file pile up in memory.
+ */
+public class CsvIngestionPipeline {
+    private static final int READ_BUFFER_SIZE = 1 << 20;
+    private static final long MARKER_WAIT_MILLIS = 100;
+    private static final List<String> NO_MORE_LINES = Collections.unmodifiableList(new ArrayList<>());
+    private static final List<Person> NO_MORE_PEOPLE = Collections.unmodifiableList(new ArrayList<>());
+
+    private final Connection connection;
+    private final PeopleRepository repository;
+    private final PersonCsvParser parser = new PersonCsvParser();
+
+    private int chunkSize = 1_000;
+    private int parserThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+    private int queueCapacity = 16;
+    private long commitInterval = 50_000;
+    private long progressInterval = 100_000;
+    private int linesToSkip = 1;
+    private Consumer<IngestionReport> progressListener = report -> {};
+
+    public CsvIngestionPipeline(Connection connection) {
+        this.connection = connection;
+        this.repository = new PeopleRepository(connection);
+        this.repository.setBatchSize(chunkSize);
+    }
+
+    public IngestionReport ingest(Path csv) {
+        long startNanos = System.nanoTime();
+        BlockingQueue<List<String>> lineChunks = new ArrayBlockingQueue<>(queueCapacity);
+        BlockingQueue<List<Person>> personChunks = new ArrayBlockingQueue<>(queueCapacity);
+        AtomicLong linesRead = new AtomicLong();
+        AtomicLong parseErrors = new AtomicLong();
+        AtomicBoolean aborted = new AtomicBoolean();
+
+        ExecutorService workers = Executors.newFixedThreadPool(parserThreads + 1, namedDaemonThreads());
+        try {
+            Future<?> reader = workers.submit(() -> {
+                readChunks(csv, lineChunks, linesRead, aborted);
+                return null;
+            });
+            for (int i = 0; i < parserThreads; i++) {
+                workers.submit(() -> {
+                    parseChunks(lineChunks, personChunks, parseErrors, aborted);
+                    return null;
+                });
+            }
+            return writeChunks(personChunks, reader, startNanos, linesRead, parseErrors);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DataException("Interrupted while ingesting " + csv, e);
+        } catch (SQLException e) {
+            throw new DataException("Unable to commit people loaded from " + csv, e);
+        } finally {
+            aborted.set(true);
+            workers.shutdownNow();
+        }
+    }
+
+    private void readChunks(Path csv, BlockingQueue<List<String>> lineChunks, AtomicLong linesRead,
+                            AtomicBoolean aborted) throws IOException, InterruptedException {
+        try (BufferedReader reader = new BufferedReader(
+                Channels.newReader(FileChannel.open(csv, StandardOpenOption.READ),
+                        StandardCharsets.UTF_8.newDecoder(), READ_BUFFER_SIZE),
+                READ_BUFFER_SIZE)) {
+            for (int i = 0; i < linesToSkip; i++) {
+                if (reader.readLine() == null) break;
+            }
+            List<String> chunk = new ArrayList<>(chunkSize);
+            String line;
+            while ((line = reader.readLine()) != null) {
+                chunk.add(line);
+                if (chunk.size() == chunkSize) {
+                    lineChunks.put(chunk);
+                    linesRead.addAndGet(chunk.size());
+                    chunk = new ArrayList<>(chunkSize);
+                }
+            }
+            if (!chunk.isEmpty()) {
+                lineChunks.put(chunk);
+                linesRead.addAndGet(chunk.size());
+            }
+        } finally {
+            for (int i = 0; i < parserThreads; i++) {
+                if (!sendMarker(lineChunks, NO_MORE_LINES, aborted)) break;
+            }
+        }
+    }
+
+    private void parseChunks(BlockingQueue<List<String>> lineChunks, BlockingQueue<List<Person>> personChunks,
+                             AtomicLong parseErrors, AtomicBoolean aborted) throws InterruptedException {
+        try {
+            List<String> lines;
+            while ((lines = lineChunks.take()) != NO_MORE_LINES) {
+                List<Person> people = new ArrayList<>(lines.size());
+                for (String line : lines) {
+                    try {
+                        people.add(parser.parse(line));
+                    } catch (RuntimeException e) {
+                        parseErrors.incrementAndGet();
+                    }
+                }
+                personChunks.put(people);
+            }
+        } finally {
+            sendMarker(personChunks, NO_MORE_PEOPLE, aborted);
+        }
+    }
+
+    /**
+     * Queues an end-of-stream marker, waiting for room until the pipeline is aborted. Once it is, nobody drains
+     * the queue anymore, and the interrupt from {@code shutdownNow} may already have been consumed by the failed
+     * {@code put}, so the wait must not depend on it.
+     *
+     * @return false when the marker was dropped because the pipeline was aborted or the thread interrupted
+     */
+    private static <E> boolean sendMarker(BlockingQueue<E> queue, E marker, AtomicBoolean aborted) {
+        try {
+            while (!aborted.get()) {
+                if (queue.offer(marker, MARKER_WAIT_MILLIS, TimeUnit.MILLISECONDS)) return true;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private IngestionReport writeChunks(BlockingQueue<List<Person>> personChunks, Future<?> reader, long startNanos,
+                                        AtomicLong linesRead, AtomicLong parseErrors)
+            throws InterruptedException, SQLException {
+        boolean commitManually = !connection.getAutoCommit();
+        long saved = 0L;
+        long commits = 0L;
+        long sinceCommit = 0L;
+        long nextProgress = progressInterval;
+        int finishedParsers = 0;
+
+        while (finishedParsers < parserThreads) {
+            List<Person> people = personChunks.take();
+            if (people == NO_MORE_PEOPLE) {
+                finishedParsers++;
+                continue;
+            }
+            saved += repository.saveAll(people);
+            sinceCommit += people.size();
+            if (commitManually && sinceCommit >= commitInterval) {
+                connection.commit();
+                commits++;
+                sinceCommit = 0L;
+            }
+            if (saved >= nextProgress) {
+                progressListener.accept(report(startNanos, linesRead, saved, parseErrors, commits));
+                nextProgress += progressInterval;
+            }
+        }
+
+        try {
+            reader.get();
+        } catch (ExecutionException e) {
+            throw new DataException("Unable to read people CSV", e.getCause());
+        }
+        if (commitManually && sinceCommit > 0) {
+            connection.commit();
+            commits++;
+        }
+        IngestionReport finalReport = report(startNanos, linesRead, saved, parseErrors, commits);
+        progressListener.accept(finalReport);
+        return finalReport;
+    }
+
+    private static IngestionReport report(long startNanos, AtomicLong linesRead, long saved, AtomicLong parseErrors,
+                                          long commits) {
+        return new IngestionReport(linesRead.get(), saved, parseErrors.get(), commits,
+                Duration.ofNanos(System.nanoTime() - startNanos));
+    }
+
+    private static ThreadFactory namedDaemonThreads() {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, "csv-ingest-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("Chunk size must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+        this.repository.setBatchSize(chunkSize);
+    }
+
+    public void setParserThreads(int parserThreads) {
+        if (parserThreads < 1) {
+            throw new IllegalArgumentException("Parser thread count must be positive: " + parserThreads);
+        }
+        this.parserThreads = parserThreads;
+    }
+
+    public void setQueueCapacity(int queueCapacity) {
+        if (queueCapacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be positive: " + queueCapacity);
+        }
+        this.queueCapacity = queueCapacity;
+    }
+
+    public void setCommitInterval(long commitInterval) {
+        this.commitInterval = commitInterval;
+    }
+
+    public void setProgressInterval(long progressInterval) {
+        this.progressInterval = progressInterval;
+    }
+
+    public void setLinesToSkip(int linesToSkip) {
+        this.linesToSkip = linesToSkip;
+    }
+
+    public void setProgressListener(Consumer<IngestionReport> progressListener) {
+        this.progressListener = progressListener;
+    }
+}
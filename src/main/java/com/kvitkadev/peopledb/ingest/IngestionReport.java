@@ -0,0 +1,20 @@
+package com.kvitkadev.peopledb.ingest;
+
+import java.time.Duration;
+
+/**
+ * Snapshot of an ingestion run, either in progress or finished.
+ */
+public record IngestionReport(long linesRead, long peopleSaved, long parseErrors, long commits, Duration elapsed) {
+
+    public double peoplePerSecond() {
+        long millis = elapsed.toMillis();
+        return millis == 0 ? 0.0 : peopleSaved * 1000.0 / millis;
+    }
+
+    @Override
+    public String toString() {
+        return "IngestionReport[linesRead=%d, peopleSaved=%d, parseErrors=%d, commits=%d, elapsed=%s, rate=%.0f/s]"
+                .formatted(linesRead, peopleSaved, parseErrors, commits, elapsed, peoplePerSecond());
+    }
+}
@@ -0,0 +1,44 @@
+package com.kvitkadev.peopledb.ingest;
+
+import com.kvitkadev.peopledb.model.Person;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+
+/**
+ * Parses one line of the Hr5m CSV export into a {@link Person}.
+ * Stateless and safe to share between parser threads.
+ */
+public class PersonCsvParser {
+    private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("M/d/yyyy");
+    private static final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("hh:mm:ss a", Locale.US);
+    private static final ZoneId UTC = ZoneId.of("+0");
+
+    private static final int FIRST_NAME = 2;
+    private static final int LAST_NAME = 4;
+    private static final int EMAIL = 6;
+    private static final int DATE_OF_BIRTH = 10;
+    private static final int TIME_OF_BIRTH = 11;
+    private static final int SALARY = 25;
+
+    public Person parse(String line) {
+        String[] s = line.split(",");
+        if (s.length <= SALARY) {
+            throw new IllegalArgumentException("Expected at least " + (SALARY + 1) + " columns but got " + s.length);
+        }
+        Person person = new Person(s[FIRST_NAME], s[LAST_NAME],
+                ZonedDateTime.of(
+                        LocalDateTime.of(LocalDate.parse(s[DATE_OF_BIRTH], dateFormatter),
+                                LocalTime.parse(s[TIME_OF_BIRTH], timeFormatter)),
+                        UTC));
+        person.setSalary(new BigDecimal(s[SALARY]));
+        person.setEmail(s[EMAIL]);
+        return person;
+    }
+}
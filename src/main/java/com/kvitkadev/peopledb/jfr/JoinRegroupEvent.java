@@ -0,0 +1,32 @@
+package com.kvitkadev.peopledb.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.kvitkadev.peopledb.JoinRegroup")
+@Label("Join Regroup")
+@Category({"PeopleDB", "Mapping"})
+@Description("Folding the joined rows of one entity, one per child, back into a single entity")
+public class JoinRegroupEvent extends Event {
+    @Label("Entity Type")
+    private Class<?> entityType;
+
+    @Label("Entity Id")
+    private long entityId;
+
+    @Label("Joined Rows")
+    private int joinedRows;
+
+    public void commit(Class<?> entityType, long entityId, int joinedRows) {
+        end();
+        if (shouldCommit()) {
+            this.entityType = entityType;
+            this.entityId = entityId;
+            this.joinedRows = joinedRows;
+            commit();
+        }
+    }
+}
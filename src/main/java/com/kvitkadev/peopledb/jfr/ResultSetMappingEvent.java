@@ -0,0 +1,37 @@
+package com.kvitkadev.peopledb.jfr;
+
+import com.kvitkadev.peopledb.model.CrudOperation;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.kvitkadev.peopledb.ResultSetMapping")
+@Label("Result Set Mapping")
+@Category({"PeopleDB", "Mapping"})
+@Description("Reading a result set and mapping its rows to entities")
+public class ResultSetMappingEvent extends Event {
+    @Label("Operation")
+    private String operation;
+
+    @Label("SQL Fingerprint")
+    private String sql;
+
+    @Label("Entity Type")
+    private Class<?> entityType;
+
+    @Label("Entities")
+    private long entities;
+
+    public void commit(CrudOperation operation, String sql, Class<?> entityType, long entities) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation.name();
+            this.sql = SqlFingerprint.of(sql);
+            this.entityType = entityType;
+            this.entities = entities;
+            commit();
+        }
+    }
+}
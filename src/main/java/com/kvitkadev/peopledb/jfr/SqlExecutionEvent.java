@@ -0,0 +1,45 @@
+package com.kvitkadev.peopledb.jfr;
+
+import com.kvitkadev.peopledb.model.CrudOperation;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.kvitkadev.peopledb.SqlExecution")
+@Label("SQL Execution")
+@Category({"PeopleDB", "JDBC"})
+@Description("A repository statement execution, from taking the statement to handing it back, including mapping")
+public class SqlExecutionEvent extends Event {
+    @Label("Operation")
+    private String operation;
+
+    @Label("SQL Fingerprint")
+    private String sql;
+
+    @Label("Entity Type")
+    private Class<?> entityType;
+
+    @Label("Rows")
+    @Description("Rows mapped to entities, or rows written")
+    private long rows;
+
+    @Label("Succeeded")
+    private boolean succeeded;
+
+    public void addRows(long rows) {
+        this.rows += rows;
+    }
+
+    public void commit(CrudOperation operation, String sql, Class<?> entityType, boolean succeeded) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation.name();
+            this.sql = SqlFingerprint.of(sql);
+            this.entityType = entityType;
+            this.succeeded = succeeded;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,36 @@
+package com.kvitkadev.peopledb.jfr;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Normalizes SQL text into a fingerprint that is the same for every execution of a query shape: whitespace is
+ * collapsed and string and number literals become {@code ?}. Fingerprints are cached, up to a bound.
+ */
+public final class SqlFingerprint {
+    private static final int MAX_CACHED = 1024;
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Map<String, String> CACHE = new ConcurrentHashMap<>();
+
+    private SqlFingerprint() {
+    }
+
+    public static String of(String sql) {
+        if (sql == null) return null;
+        String cached = CACHE.get(sql);
+        if (cached != null) return cached;
+        String fingerprint = normalize(sql);
+        if (CACHE.size() < MAX_CACHED) {
+            CACHE.putIfAbsent(sql, fingerprint);
+        }
+        return fingerprint;
+    }
+
+    static String normalize(String sql) {
+        String literalsReplaced = NUMBER_LITERAL.matcher(STRING_LITERAL.matcher(sql).replaceAll("?")).replaceAll("?");
+        return WHITESPACE.matcher(literalsReplaced).replaceAll(" ").strip();
+    }
+}
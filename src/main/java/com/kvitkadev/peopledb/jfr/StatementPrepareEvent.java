@@ -0,0 +1,29 @@
+package com.kvitkadev.peopledb.jfr;
+
+import com.kvitkadev.peopledb.model.CrudOperation;
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+@Name("com.kvitkadev.peopledb.StatementPrepare")
+@Label("Statement Prepare")
+@Category({"PeopleDB", "JDBC"})
+@Description("A statement prepared on a statement cache miss")
+public class StatementPrepareEvent extends Event {
+    @Label("Operation")
+    private String operation;
+
+    @Label("SQL Fingerprint")
+    private String sql;
+
+    public void commit(CrudOperation operation, String sql) {
+        end();
+        if (shouldCommit()) {
+            this.operation = operation.name();
+            this.sql = SqlFingerprint.of(sql);
+            commit();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.kvitkadev.peopledb.metrics;
+
+import com.kvitkadev.peopledb.model.CrudOperation;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * In-process {@link RepositoryMetrics} that keeps a latency histogram and counters per repository and operation,
+ * to be read with {@link #snapshot()} or printed with {@link #dump()}.
+ */
+public class MetricsRegistry implements RepositoryMetrics {
+
+    private record Key(Class<?> repositoryType, CrudOperation operation) {
+    }
+
+    /**
+     * Metrics of one operation of one repository at the time of the snapshot. Latencies are in nanoseconds.
+     */
+    public record OperationStats(Class<?> repositoryType, CrudOperation operation, long executions, long errors,
+                                 long rows, long batches, long batchedRows, long maxBatchSize, double meanLatency,
+                                 long p50Latency, long p99Latency, long maxLatency) {
+
+        public double meanBatchSize() {
+            return batches == 0 ? 0.0 : (double) batchedRows / batches;
+        }
+    }
+
+    private static final class OperationMetrics {
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+        final LongAdder rows = new LongAdder();
+        final LongAdder batches = new LongAdder();
+        final LongAdder batchedRows = new LongAdder();
+        final AtomicLong maxBatchSize = new AtomicLong();
+    }
+
+    private final Map<Key, OperationMetrics> metrics = new ConcurrentHashMap<>();
+
+    private OperationMetrics metrics(Class<?> repositoryType, CrudOperation operation) {
+        return metrics.computeIfAbsent(new Key(repositoryType, operation), key -> new OperationMetrics());
+    }
+
+    @Override
+    public void recordExecution(Class<?> repositoryType, CrudOperation operation, long elapsedNanos, boolean failed) {
+        OperationMetrics operationMetrics = metrics(repositoryType, operation);
+        operationMetrics.latency.record(elapsedNanos);
+        if (failed) {
+            operationMetrics.errors.increment();
+        }
+    }
+
+    @Override
+    public void recordRows(Class<?> repositoryType, CrudOperation operation, long rows) {
+        metrics(repositoryType, operation).rows.add(rows);
+    }
+
+    @Override
+    public void recordBatch(Class<?> repositoryType, CrudOperation operation, int batchSize) {
+        OperationMetrics operationMetrics = metrics(repositoryType, operation);
+        operationMetrics.batches.increment();
+        operationMetrics.batchedRows.add(batchSize);
+        operationMetrics.maxBatchSize.accumulateAndGet(batchSize, Math::max);
+    }
+
+    /**
+     * @return stats of every operation recorded so far, ordered by repository and operation
+     */
+    public List<OperationStats> snapshot() {
+        List<OperationStats> stats = new ArrayList<>(metrics.size());
+        metrics.forEach((key, operationMetrics) -> {
+            LatencyHistogram latency = operationMetrics.latency;
+            stats.add(new OperationStats(key.repositoryType(), key.operation(), latency.getCount(),
+                    operationMetrics.errors.sum(), operationMetrics.rows.sum(), operationMetrics.batches.sum(),
+                    operationMetrics.batchedRows.sum(), operationMetrics.maxBatchSize.get(), latency.getMean(),
+                    latency.getValueAtPercentile(50), latency.getValueAtPercentile(99), latency.getMax()));
+        });
+        stats.sort(Comparator.comparing((OperationStats s) -> s.repositoryType().getName())
+                .thenComparing(OperationStats::operation));
+        return stats;
+    }
+
+    /**
+     * @return one line per operation, latencies in microseconds
+     */
+    public String dump() {
+        StringBuilder out = new StringBuilder(String.format("%-20s %-18s %10s %7s %12s %8s %10s %10s %10s %10s%n",
+                "repository", "operation", "executions", "errors", "rows", "batches", "mean(us)", "p50(us)",
+                "p99(us)", "max(us)"));
+        for (OperationStats s : snapshot()) {
+            out.append(String.format("%-20s %-18s %10d %7d %12d %8d %10.1f %10.1f %10.1f %10.1f%n",
+                    s.repositoryType().getSimpleName(), s.operation(), s.executions(), s.errors(), s.rows(),
+                    s.batches(), micros(s.meanLatency()), micros(s.p50Latency()), micros(s.p99Latency()),
+                    micros(s.maxLatency())));
+        }
+        return out.toString();
+    }
+
+    private static double micros(double nanos) {
+        return nanos / TimeUnit.MICROSECONDS.toNanos(1);
+    }
+
+    public void reset() {
+        metrics.clear();
+    }
+}
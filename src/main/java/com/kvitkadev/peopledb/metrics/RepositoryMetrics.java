@@ -0,0 +1,27 @@
+package com.kvitkadev.peopledb.metrics;
+
+import com.kvitkadev.peopledb.model.CrudOperation;
+
+/**
+ * Receives measurements from repositories, keyed by repository class and {@link CrudOperation}.
+ * <p>
+ * Implementations are called on the threads running the operations and must be thread-safe and cheap.
+ * Repositories without metrics skip the timing entirely.
+ */
+public interface RepositoryMetrics {
+
+    /**
+     * One statement execution: the time from taking the statement to finishing with it, and whether it threw.
+     */
+    void recordExecution(Class<?> repositoryType, CrudOperation operation, long elapsedNanos, boolean failed);
+
+    /**
+     * Rows read (mapped to entities) or written (affected) by an operation.
+     */
+    void recordRows(Class<?> repositoryType, CrudOperation operation, long rows);
+
+    /**
+     * The size of one JDBC batch sent by an operation.
+     */
+    void recordBatch(Class<?> repositoryType, CrudOperation operation, int batchSize);
+}
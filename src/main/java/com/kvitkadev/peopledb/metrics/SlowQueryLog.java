@@ -0,0 +1,199 @@
+package com.kvitkadev.peopledb.metrics;
+
+import com.kvitkadev.peopledb.jfr.SqlFingerprint;
+import com.kvitkadev.peopledb.model.CrudOperation;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the last {@code capacity} statement executions that took at least {@code threshold}, with their SQL,
+ * bound parameters and elapsed time, in a ring buffer.
+ * <p>
+ * The first time a SQL fingerprint turns up slow its plan is captured on the same connection with plain
+ * {@code EXPLAIN}, which only plans the statement. {@link #setExplainAnalyze(boolean)} switches queries to
+ * {@code EXPLAIN ANALYZE}. Later entries for the fingerprint share that plan.
+ */
+public class SlowQueryLog {
+    static final int DEFAULT_CAPACITY = 256;
+    static final int MAX_PLANS = 1024;
+    static final String REDACTED = "***";
+
+    /**
+     * One slow execution. {@code plan} is empty when it could not be captured, e.g. past {@link #MAX_PLANS}.
+     */
+    public record SlowQuery(Instant at, Class<?> repositoryType, CrudOperation operation, String sql,
+                            String fingerprint, List<String> parameters, Duration elapsed, Optional<String> plan) {
+    }
+
+    private final long thresholdNanos;
+    private final SlowQuery[] entries;
+    private final Map<String, String> plans = new ConcurrentHashMap<>();
+    private volatile boolean redactParameters;
+    private volatile boolean explainAnalyze;
+    private int next;
+    private long recorded;
+
+    public SlowQueryLog(Duration threshold) {
+        this(threshold, DEFAULT_CAPACITY);
+    }
+
+    public SlowQueryLog(Duration threshold, int capacity) {
+        if (threshold.isNegative()) {
+            throw new IllegalArgumentException("Slow query threshold must not be negative: " + threshold);
+        }
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Slow query log capacity must be positive: " + capacity);
+        }
+        this.thresholdNanos = threshold.toNanos();
+        this.entries = new SlowQuery[capacity];
+    }
+
+    public boolean isSlow(long elapsedNanos) {
+        return elapsedNanos >= thresholdNanos;
+    }
+
+    /**
+     * Logs a slow execution, capturing the plan on {@code connection} if the fingerprint has none yet.
+     *
+     * @param parameters the values bound to the statement, by parameter index starting at 0
+     */
+    public void record(Connection connection, Class<?> repositoryType, CrudOperation operation, String sql,
+                       List<Object> parameters, long elapsedNanos) {
+        String fingerprint = SqlFingerprint.of(sql);
+        String plan = plans.get(fingerprint);
+        if (plan == null && plans.size() < MAX_PLANS) {
+            plan = explain(connection, sql, parameters, explainAnalyze);
+            String known = plans.putIfAbsent(fingerprint, plan);
+            if (known != null) {
+                plan = known;
+            }
+        }
+        add(new SlowQuery(Instant.now(), repositoryType, operation, sql, fingerprint, render(parameters),
+                Duration.ofNanos(elapsedNanos), Optional.ofNullable(plan)));
+    }
+
+    private static String explain(Connection connection, String sql, List<Object> parameters, boolean analyze) {
+        String statement = sql.strip();
+        boolean query = statement.regionMatches(true, 0, "SELECT", 0, 6)
+                || statement.regionMatches(true, 0, "WITH", 0, 4);
+        String explain = analyze && query ? "EXPLAIN ANALYZE " : "EXPLAIN ";
+        try (PreparedStatement ps = connection.prepareStatement(explain + statement)) {
+            for (int i = 0; i < parameters.size(); i++) {
+                ps.setObject(i + 1, parameters.get(i));
+            }
+            StringBuilder plan = new StringBuilder();
+            try (ResultSet rs = ps.executeQuery()) {
+                while (rs.next()) {
+                    if (!plan.isEmpty()) plan.append('\n');
+                    plan.append(rs.getString(1));
+                }
+            }
+            return plan.toString();
+        } catch (SQLException e) {
+            return "EXPLAIN failed: " + e.getMessage();
+        }
+    }
+
+    private List<String> render(List<Object> parameters) {
+        boolean redact = redactParameters;
+        List<String> rendered = new ArrayList<>(parameters.size());
+        for (Object parameter : parameters) {
+            if (parameter == null) {
+                rendered.add("NULL");
+            } else if (redact) {
+                rendered.add(REDACTED);
+            } else if (parameter instanceof Object[] array) {
+                rendered.add(array.length + " values");
+            } else {
+                rendered.add(String.valueOf(parameter));
+            }
+        }
+        return rendered;
+    }
+
+    private synchronized void add(SlowQuery query) {
+        entries[next] = query;
+        next = (next + 1) % entries.length;
+        recorded++;
+    }
+
+    /**
+     * @return the logged executions, oldest first
+     */
+    public synchronized List<SlowQuery> entries() {
+        List<SlowQuery> logged = new ArrayList<>(entries.length);
+        for (int i = 0; i < entries.length; i++) {
+            SlowQuery query = entries[(next + i) % entries.length];
+            if (query != null) {
+                logged.add(query);
+            }
+        }
+        return logged;
+    }
+
+    public Optional<String> getPlan(String fingerprint) {
+        return Optional.ofNullable(plans.get(fingerprint));
+    }
+
+    /**
+     * @return every slow execution seen, including those that dropped out of the ring buffer
+     */
+    public synchronized long getRecordedCount() {
+        return recorded;
+    }
+
+    public synchronized void clear() {
+        Arrays.fill(entries, null);
+        next = 0;
+        recorded = 0L;
+        plans.clear();
+    }
+
+    /**
+     * Replaces every non-null parameter value by {@value #REDACTED} in entries logged from now on.
+     */
+    public void setRedactParameters(boolean redactParameters) {
+        this.redactParameters = redactParameters;
+    }
+
+    public boolean isRedactingParameters() {
+        return redactParameters;
+    }
+
+    /**
+     * Captures the plans of queries with {@code EXPLAIN ANALYZE}, which adds actual row counts but runs the
+     * slow query a second time, on the caller's thread and connection, inside its transaction. Statements that
+     * write are always planned with plain {@code EXPLAIN}, so they never run twice. Off by default.
+     */
+    public void setExplainAnalyze(boolean explainAnalyze) {
+        this.explainAnalyze = explainAnalyze;
+    }
+
+    public boolean isExplainAnalyze() {
+        return explainAnalyze;
+    }
+
+    public String dump() {
+        StringBuilder out = new StringBuilder();
+        for (SlowQuery query : entries()) {
+            out.append(String.format("%s %s.%s %d ms %s%n", query.at(), query.repositoryType().getSimpleName(),
+                    query.operation(), TimeUnit.NANOSECONDS.toMillis(query.elapsed().toNanos()), query.fingerprint()));
+            out.append("  parameters: ").append(query.parameters()).append(System.lineSeparator());
+            query.plan().ifPresent(plan -> out.append("  plan: ")
+                    .append(plan.replace("\n", System.lineSeparator() + "        ")).append(System.lineSeparator()));
+        }
+        return out.toString();
+    }
+}
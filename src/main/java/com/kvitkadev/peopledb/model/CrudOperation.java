@@ -5,7 +5,16 @@ public enum CrudOperation {
     UPDATE,
     FIND_BY_ID,
     FIND_ALL,
+    FIND_ALL_BY_ID,
+    STREAM_ALL,
+    FIND_PAGE_FORWARD,
+    FIND_PAGE_BACKWARD,
     DELETE_ONE,
     DELETE_MANY,
+    DELETE_WHERE,
+    FIND_WHERE,
+    COUNT_WHERE,
+    EXISTS_WHERE,
+    AGGREGATE_WHERE,
     COUNT
 }
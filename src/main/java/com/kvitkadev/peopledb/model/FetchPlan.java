@@ -0,0 +1,48 @@
+package com.kvitkadev.peopledb.model;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Associations of a {@link Person} to load together with it. Associations left out of the plan
+ * are loaded lazily, the first time their getter is called.
+ */
+public final class FetchPlan {
+
+    public enum Association {
+        SPOUSE,
+        CHILDREN,
+        HOME_ADDRESS,
+        BUSINESS_ADDRESS
+    }
+
+    private static final FetchPlan NONE = new FetchPlan(EnumSet.noneOf(Association.class));
+    private static final FetchPlan ALL = new FetchPlan(EnumSet.allOf(Association.class));
+
+    private final Set<Association> associations;
+
+    private FetchPlan(EnumSet<Association> associations) {
+        this.associations = associations;
+    }
+
+    public static FetchPlan of(Association first, Association... rest) {
+        return new FetchPlan(EnumSet.of(first, rest));
+    }
+
+    public static FetchPlan none() {
+        return NONE;
+    }
+
+    public static FetchPlan all() {
+        return ALL;
+    }
+
+    public boolean includes(Association association) {
+        return associations.contains(association);
+    }
+
+    @Override
+    public String toString() {
+        return "FetchPlan" + associations;
+    }
+}
@@ -0,0 +1,16 @@
+package com.kvitkadev.peopledb.model;
+
+import java.util.List;
+
+/**
+ * Outcome of looking up several entities by id.
+ *
+ * @param found      entities that exist, in the order their ids were requested
+ * @param missingIds requested ids without an entity, in request order
+ */
+public record LookupResult<T>(List<T> found, List<Long> missingIds) {
+
+    public boolean allFound() {
+        return missingIds.isEmpty();
+    }
+}
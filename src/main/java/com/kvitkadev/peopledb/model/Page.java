@@ -0,0 +1,22 @@
+package com.kvitkadev.peopledb.model;
+
+import java.util.List;
+
+/**
+ * One page of a keyset (seek) pagination over entity ids.
+ *
+ * @param content    entities of the page, in the order of {@code direction}
+ * @param direction  direction the page was read in
+ * @param nextCursor id to pass as {@code afterId} to get the following page, {@code null} on the last page
+ */
+public record Page<T>(List<T> content, Direction direction, Long nextCursor) {
+
+    public enum Direction {
+        FORWARD,
+        BACKWARD
+    }
+
+    public boolean hasNext() {
+        return nextCursor != null;
+    }
+}
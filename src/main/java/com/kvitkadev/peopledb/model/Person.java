@@ -6,12 +6,21 @@ import java.math.BigDecimal;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.temporal.ChronoUnit;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.HashSet;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Supplier;
 
 public class Person {
+    /**
+     * Properties whose changes are tracked for partial updates.
+     */
+    public enum Property {FIRST_NAME, LAST_NAME, DOB, SALARY, EMAIL, SPOUSE}
+
     @Id
     private Long id;
 
@@ -26,6 +35,17 @@ public class Person {
     private Optional<Person> parent = Optional.empty();
     private Set<Person> children = new HashSet<>();
 
+    // Set by repositories for associations that were not fetched; resolved once, on first access.
+    private Supplier<Optional<Address>> homeAddressLoader;
+    private Supplier<Optional<Address>> businessAddressLoader;
+    private Supplier<Optional<Person>> spouseLoader;
+    private Supplier<? extends Collection<Person>> childrenLoader;
+    // The id the spouse loader resolves to, when the repository knew it without loading; null means none.
+    private boolean spouseLoaderIdKnown;
+    private Long spouseLoaderId;
+    // Null until a repository starts tracking changes, e.g. after loading or saving this person.
+    private Set<Property> changedProperties;
+
     public Person(long id, String firstName, String lastName, ZonedDateTime dob, BigDecimal salary) {
         this(id, firstName, lastName, dob);
         this.salary = salary;
@@ -55,6 +75,7 @@ public class Person {
     }
 
     public void setFirstName(String firstName) {
+        changed(Property.FIRST_NAME, this.firstName, firstName);
         this.firstName = firstName;
     }
 
@@ -63,6 +84,7 @@ public class Person {
     }
 
     public void setLastName(String lastName) {
+        changed(Property.LAST_NAME, this.lastName, lastName);
         this.lastName = lastName;
     }
 
@@ -71,6 +93,7 @@ public class Person {
     }
 
     public void setDob(ZonedDateTime dob) {
+        changed(Property.DOB, this.dob, dob);
         this.dob = dob;
     }
 
@@ -79,6 +102,7 @@ public class Person {
     }
 
     public void setSalary(BigDecimal salary) {
+        changed(Property.SALARY, this.salary, salary);
         this.salary = salary;
     }
 
@@ -87,6 +111,7 @@ public class Person {
     }
 
     public void setEmail(String email) {
+        changed(Property.EMAIL, this.email, email);
         this.email = email;
     }
 
@@ -114,28 +139,110 @@ public class Person {
         return Objects.hash(id, firstName, lastName, dob);
     }
 
+    /**
+     * Starts tracking changes to this person's properties, forgetting the changes tracked so far.
+     */
+    public void trackChanges() {
+        changedProperties = EnumSet.noneOf(Property.class);
+    }
+
+    public boolean isTrackingChanges() {
+        return changedProperties != null;
+    }
+
+    /**
+     * @return properties set to a different value since {@link #trackChanges()}, or empty when changes are not tracked
+     */
+    public Optional<Set<Property>> getChangedProperties() {
+        return changedProperties == null ? Optional.empty() : Optional.of(Collections.unmodifiableSet(changedProperties));
+    }
+
+    private void changed(Property property, Object oldValue, Object newValue) {
+        if (changedProperties != null && !Objects.equals(oldValue, newValue)) {
+            changedProperties.add(property);
+        }
+    }
+
     public void setHomeAddress(Address homeAddress) {
         this.homeAddress = Optional.ofNullable(homeAddress);
+        this.homeAddressLoader = null;
+    }
+
+    public void setHomeAddressLoader(Supplier<Optional<Address>> homeAddressLoader) {
+        this.homeAddressLoader = homeAddressLoader;
     }
 
     public Optional<Address> getHomeAddress() {
+        if (homeAddressLoader != null) {
+            Supplier<Optional<Address>> loader = homeAddressLoader;
+            homeAddressLoader = null;
+            homeAddress = loader.get();
+        }
         return homeAddress;
     }
 
     public void setBusinessAddress(Address businessAddress) {
         this.businessAddress = Optional.ofNullable(businessAddress);
+        this.businessAddressLoader = null;
+    }
+
+    public void setBusinessAddressLoader(Supplier<Optional<Address>> businessAddressLoader) {
+        this.businessAddressLoader = businessAddressLoader;
     }
 
     public Optional<Address> getBusinessAddress() {
+        if (businessAddressLoader != null) {
+            Supplier<Optional<Address>> loader = businessAddressLoader;
+            businessAddressLoader = null;
+            businessAddress = loader.get();
+        }
         return businessAddress;
     }
 
+    /**
+     * Marks the spouse changed only when it is another person. A pending spouse loader is compared by the id it
+     * resolves to when that id is known, and is resolved first otherwise.
+     */
     public void setSpouse(Person spouse) {
+        if (changedProperties != null && !isSpouse(spouse)) {
+            changedProperties.add(Property.SPOUSE);
+        }
         this.spouse = Optional.ofNullable(spouse);
+        this.spouseLoader = null;
+        this.spouseLoaderIdKnown = false;
 //        spouse.setSpouse(this);
     }
 
+    private boolean isSpouse(Person spouse) {
+        if (spouseLoader != null && spouseLoaderIdKnown) {
+            return spouse == null ? spouseLoaderId == null : spouse.getId() != null && spouse.getId().equals(spouseLoaderId);
+        }
+        Person current = getSpouse().orElse(null);
+        if (current == spouse) return true;
+        return current != null && spouse != null && current.getId() != null && current.getId().equals(spouse.getId());
+    }
+
+    public void setSpouseLoader(Supplier<Optional<Person>> spouseLoader) {
+        this.spouseLoader = spouseLoader;
+        this.spouseLoaderIdKnown = false;
+    }
+
+    /**
+     * Sets a spouse loader whose spouse id is already known, so setting the same spouse does not load it.
+     */
+    public void setSpouseLoader(Long spouseId, Supplier<Optional<Person>> spouseLoader) {
+        this.spouseLoader = spouseLoader;
+        this.spouseLoaderId = spouseId;
+        this.spouseLoaderIdKnown = true;
+    }
+
     public Optional<Person> getSpouse() {
+        if (spouseLoader != null) {
+            Supplier<Optional<Person>> loader = spouseLoader;
+            spouseLoader = null;
+            spouseLoaderIdKnown = false;
+            spouse = loader.get();
+        }
         return spouse;
     }
 
@@ -146,6 +253,13 @@ public class Person {
         }
     }
 
+    /**
+     * Children from the loader are added to the ones already present when the children are first read.
+     */
+    public void setChildrenLoader(Supplier<? extends Collection<Person>> childrenLoader) {
+        this.childrenLoader = childrenLoader;
+    }
+
     private void setParent(Person parent) {
         this.parent = Optional.ofNullable(parent);
     }
@@ -155,6 +269,11 @@ public class Person {
     }
 
     public Set<Person> getChildren() {
+        if (childrenLoader != null) {
+            Supplier<? extends Collection<Person>> loader = childrenLoader;
+            childrenLoader = null;
+            loader.get().forEach(this::addChild);
+        }
         return children;
     }
 }
@@ -0,0 +1,54 @@
+package com.kvitkadev.peopledb.query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A parameterized SQL predicate over entities of type {@code T}.
+ * <p>
+ * The SQL text depends only on the shape of the predicate, never on its values, so repositories can
+ * prepare and cache one statement per shape. Values are kept in {@link #parameters()} in the order of
+ * their {@code ?} placeholders.
+ */
+public final class Criteria<T> {
+    private final String sql;
+    private final List<Object> parameters;
+
+    Criteria(String sql, List<Object> parameters) {
+        this.sql = sql;
+        this.parameters = Collections.unmodifiableList(parameters);
+    }
+
+    public Criteria<T> and(Criteria<T> other) {
+        return combine("AND", other);
+    }
+
+    public Criteria<T> or(Criteria<T> other) {
+        return combine("OR", other);
+    }
+
+    public Criteria<T> not() {
+        return new Criteria<>("NOT (" + sql + ")", new ArrayList<>(parameters));
+    }
+
+    private Criteria<T> combine(String operator, Criteria<T> other) {
+        List<Object> combined = new ArrayList<>(parameters.size() + other.parameters.size());
+        combined.addAll(parameters);
+        combined.addAll(other.parameters);
+        return new Criteria<>("(" + sql + ") " + operator + " (" + other.sql + ")", combined);
+    }
+
+    public String sql() {
+        return sql;
+    }
+
+    public List<Object> parameters() {
+        return parameters;
+    }
+
+    @Override
+    public String toString() {
+        return "Criteria[" + sql + ", parameters=" + parameters + ']';
+    }
+}
@@ -0,0 +1,92 @@
+package com.kvitkadev.peopledb.query;
+
+import com.kvitkadev.peopledb.model.Person;
+import com.kvitkadev.peopledb.model.Region;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Objects;
+
+/**
+ * Criteria over the PEOPLE table, written against its {@code PARENT} alias.
+ * <p>
+ * Every predicate compares a bare column with parameters (ranges, equality, prefix LIKE), never a function of
+ * a column, so the database can answer it from an index on that column. Region is matched through the home
+ * address with a correlated EXISTS on the ADDRESSES primary key instead of a join, so it never multiplies rows.
+ */
+public final class PersonCriteria {
+    private static final ZoneId UTC = ZoneId.of("+0");
+
+    private PersonCriteria() {
+    }
+
+    /**
+     * Matches every person.
+     */
+    public static Criteria<Person> any() {
+        return of("TRUE");
+    }
+
+    public static Criteria<Person> firstNameIs(String firstName) {
+        return of("PARENT.FIRST_NAME = ?", Objects.requireNonNull(firstName, "firstName"));
+    }
+
+    public static Criteria<Person> lastNameIs(String lastName) {
+        return of("PARENT.LAST_NAME = ?", Objects.requireNonNull(lastName, "lastName"));
+    }
+
+    public static Criteria<Person> lastNameStartsWith(String prefix) {
+        return of("PARENT.LAST_NAME LIKE ? ESCAPE '\\'", escapeLike(Objects.requireNonNull(prefix, "prefix")) + "%");
+    }
+
+    public static Criteria<Person> emailIs(String email) {
+        return of("PARENT.EMAIL = ?", Objects.requireNonNull(email, "email"));
+    }
+
+    /**
+     * @return people earning between {@code min} and {@code max}, both inclusive
+     */
+    public static Criteria<Person> salaryBetween(BigDecimal min, BigDecimal max) {
+        return of("PARENT.SALARY BETWEEN ? AND ?", min, max);
+    }
+
+    public static Criteria<Person> salaryAtLeast(BigDecimal min) {
+        return of("PARENT.SALARY >= ?", min);
+    }
+
+    public static Criteria<Person> salaryBelow(BigDecimal max) {
+        return of("PARENT.SALARY < ?", max);
+    }
+
+    /**
+     * @return people born at or after {@code from} and before {@code to}
+     */
+    public static Criteria<Person> bornBetween(ZonedDateTime from, ZonedDateTime to) {
+        return of("PARENT.DOB >= ? AND PARENT.DOB < ?", toTimestamp(from), toTimestamp(to));
+    }
+
+    public static Criteria<Person> homeRegionIs(Region region) {
+        return of("EXISTS (SELECT 1 FROM ADDRESSES AS HOME WHERE HOME.ID = PARENT.HOME_ADDRESS AND HOME.REGION = ?)",
+                Objects.requireNonNull(region, "region").toString());
+    }
+
+    public static Criteria<Person> hasSpouse() {
+        return of("PARENT.SPOUSE_ID IS NOT NULL");
+    }
+
+    static Criteria<Person> of(String sql, Object... parameters) {
+        return new Criteria<>(sql, new ArrayList<>(Arrays.asList(parameters)));
+    }
+
+    private static Timestamp toTimestamp(ZonedDateTime dateTime) {
+        return Timestamp.valueOf(dateTime.withZoneSameInstant(UTC).toLocalDateTime());
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,53 @@
+package com.kvitkadev.peopledb.query;
+
+import com.kvitkadev.peopledb.model.Region;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * What {@link SalaryAggregation} can group people by, as SQL over the {@code PARENT} alias of PEOPLE.
+ * Regions join the person's address under its own alias; people without that address form a {@code null} group.
+ */
+public enum PersonGrouping {
+    HOME_REGION("HOME.REGION", "LEFT JOIN ADDRESSES AS HOME ON HOME.ID = PARENT.HOME_ADDRESS"),
+    BUSINESS_REGION("BIZ.REGION", "LEFT JOIN ADDRESSES AS BIZ ON BIZ.ID = PARENT.BIZ_ADDRESS"),
+    BIRTH_YEAR("EXTRACT(YEAR FROM PARENT.DOB)", null),
+    LAST_NAME("PARENT.LAST_NAME", null);
+
+    private final String expression;
+    private final String join;
+
+    PersonGrouping(String expression, String join) {
+        this.expression = expression;
+        this.join = join;
+    }
+
+    public String expression() {
+        return expression;
+    }
+
+    /**
+     * @return the join the expression needs, or {@code null} when it only reads PEOPLE
+     */
+    public String join() {
+        return join;
+    }
+
+    /**
+     * Reads the group value at {@code index}: a {@link Region}, an {@link Integer} year or a {@link String}.
+     */
+    public Object read(ResultSet rs, int index) throws SQLException {
+        return switch (this) {
+            case HOME_REGION, BUSINESS_REGION -> {
+                String region = rs.getString(index);
+                yield region == null ? null : Region.valueOf(region.toUpperCase());
+            }
+            case BIRTH_YEAR -> {
+                int year = rs.getInt(index);
+                yield rs.wasNull() ? null : year;
+            }
+            case LAST_NAME -> rs.getString(index);
+        };
+    }
+}
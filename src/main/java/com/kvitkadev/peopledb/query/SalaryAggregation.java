@@ -0,0 +1,75 @@
+package com.kvitkadev.peopledb.query;
+
+import com.kvitkadev.peopledb.model.Person;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Salary statistics per group of people, computed by the database: headcount, count, sum, average, minimum,
+ * maximum and any percentiles of {@code SALARY}, for the people matching {@link #criteria()}.
+ * <p>
+ * Like {@link Criteria}, the SQL depends only on the groupings, the percentiles and the criteria shape,
+ * so repositories can cache one statement per aggregation shape. Percentiles are part of the shape.
+ */
+public final class SalaryAggregation {
+    private final List<PersonGrouping> groupings;
+    private final List<BigDecimal> percentiles;
+    private final Criteria<Person> criteria;
+
+    private SalaryAggregation(List<PersonGrouping> groupings, List<BigDecimal> percentiles, Criteria<Person> criteria) {
+        this.groupings = Collections.unmodifiableList(groupings);
+        this.percentiles = Collections.unmodifiableList(percentiles);
+        this.criteria = criteria;
+    }
+
+    /**
+     * Groups by the given keys, in order; with none, everyone forms a single group.
+     */
+    public static SalaryAggregation groupBy(PersonGrouping... groupings) {
+        List<PersonGrouping> distinct = Arrays.stream(groupings).map(Objects::requireNonNull).distinct().toList();
+        return new SalaryAggregation(distinct, List.of(), PersonCriteria.any());
+    }
+
+    public SalaryAggregation where(Criteria<Person> criteria) {
+        return new SalaryAggregation(groupings, percentiles, Objects.requireNonNull(criteria, "criteria"));
+    }
+
+    /**
+     * Adds continuous percentiles of the salary, as fractions between 0 and 1 (0.5 for the median).
+     */
+    public SalaryAggregation withPercentiles(double... fractions) {
+        List<BigDecimal> combined = new ArrayList<>(percentiles);
+        for (double fraction : fractions) {
+            if (!(fraction >= 0.0 && fraction <= 1.0)) {
+                throw new IllegalArgumentException("Percentile must be between 0 and 1: " + fraction);
+            }
+            BigDecimal percentile = BigDecimal.valueOf(fraction).stripTrailingZeros();
+            if (!combined.contains(percentile)) {
+                combined.add(percentile);
+            }
+        }
+        return new SalaryAggregation(groupings, combined, criteria);
+    }
+
+    public List<PersonGrouping> groupings() {
+        return groupings;
+    }
+
+    public List<BigDecimal> percentiles() {
+        return percentiles;
+    }
+
+    public Criteria<Person> criteria() {
+        return criteria;
+    }
+
+    @Override
+    public String toString() {
+        return "SalaryAggregation[groupings=" + groupings + ", percentiles=" + percentiles + ", " + criteria + ']';
+    }
+}
@@ -0,0 +1,25 @@
+package com.kvitkadev.peopledb.query;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * One summary row of a {@link SalaryAggregation}.
+ *
+ * @param groups      the group's value for each grouping, {@code null} for people without one
+ * @param headcount   people in the group
+ * @param salaried    people in the group with a salary; sum, average, extremes and percentiles are over those
+ * @param percentiles salary by percentile fraction, in the order they were requested
+ */
+public record SalaryStatistics(Map<PersonGrouping, Object> groups, long headcount, long salaried, BigDecimal sum,
+                               BigDecimal average, BigDecimal min, BigDecimal max,
+                               Map<BigDecimal, BigDecimal> percentiles) {
+
+    public Object group(PersonGrouping grouping) {
+        return groups.get(grouping);
+    }
+
+    public BigDecimal percentile(double fraction) {
+        return percentiles.get(BigDecimal.valueOf(fraction).stripTrailingZeros());
+    }
+}
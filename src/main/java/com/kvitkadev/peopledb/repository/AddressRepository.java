@@ -1,28 +1,258 @@
 package com.kvitkadev.peopledb.repository;
 
 import com.kvitkadev.peopledb.annotation.SQL;
+import com.kvitkadev.peopledb.connection.ConnectionProvider;
+import com.kvitkadev.peopledb.exception.UnableToSaveException;
 import com.kvitkadev.peopledb.model.Address;
 import com.kvitkadev.peopledb.model.CrudOperation;
 import com.kvitkadev.peopledb.model.Region;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
 
 public class AddressRepository extends CrudRepository<Address> {
+    static final String FIND_ID_BY_CONTENT_SQL = "SELECT ID FROM ADDRESSES WHERE CONTENT_KEY=?";
+    private static final String SAVE_WITH_CONTENT_KEY_SQL = """
+        INSERT INTO ADDRESSES (STREET_ADDRESS, ADDRESS2, CITY, STATE, POSTCODE, COUNTY, REGION, COUNTRY, CONTENT_KEY) VALUES (?,?,?,?,?,?,?,?,?)
+        """;
+    private static final String UNIQUE_VIOLATION = "23505";
+
+    /**
+     * Address fields trimmed and with inner whitespace collapsed; the key of the deduplication cache.
+     */
+    private record ContentKey(String streetAddress, String address2, String city, String state, String postcode,
+                              String county, Region region, String country) {
+
+        static ContentKey of(Address address) {
+            return new ContentKey(normalize(address.streetAddress()), normalize(address.address2()),
+                    normalize(address.city()), normalize(address.state()), normalize(address.postcode()),
+                    normalize(address.county()), address.region(), normalize(address.country()));
+        }
+
+        private static String normalize(String value) {
+            return value == null ? null : value.strip().replaceAll("\\s+", " ");
+        }
+
+        /**
+         * @return the SHA-256 of the fields, kept in the uniquely indexed CONTENT_KEY column
+         */
+        String digest() {
+            StringBuilder content = new StringBuilder();
+            for (Object field : Arrays.asList(streetAddress, address2, city, state, postcode, county, region, country)) {
+                content.append(field == null ? "\u0000" : field).append('\u001F');
+            }
+            try {
+                return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256")
+                        .digest(content.toString().getBytes(StandardCharsets.UTF_8)));
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("SHA-256 is not available", e);
+            }
+        }
+    }
+
+    private final Object deduplicationLock = new Object();
+    private Map<ContentKey, Long> knownAddressIds;
+    private final Map<Long, ContentKey> knownAddressKeys = new HashMap<>();
+    private final List<LongConsumer> invalidationListeners = new CopyOnWriteArrayList<>();
+
     public AddressRepository(Connection connection) {
         super(connection);
     }
 
+    public AddressRepository(ConnectionProvider connections) {
+        super(connections);
+    }
+
+    /**
+     * Turns address deduplication on with room for {@code maxEntries} known addresses, or off when 0.
+     * <p>
+     * With deduplication on, {@link #saveOrReuse(Address)} reuses the row of an equal address instead of
+     * inserting another one. The cache is dropped when rows are updated or deleted through this repository;
+     * call {@link #clearDeduplicationCache()} after a rollback.
+     */
+    public void setDeduplicationCacheSize(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("Deduplication cache size must not be negative: " + maxEntries);
+        }
+        synchronized (deduplicationLock) {
+            knownAddressIds = maxEntries == 0 ? null : new LinkedHashMap<>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<ContentKey, Long> eldest) {
+                    if (size() <= maxEntries) return false;
+                    knownAddressKeys.remove(eldest.getValue());
+                    return true;
+                }
+            };
+            knownAddressKeys.clear();
+        }
+    }
+
+    public boolean isDeduplicating() {
+        synchronized (deduplicationLock) {
+            return knownAddressIds != null;
+        }
+    }
+
+    public void clearDeduplicationCache() {
+        synchronized (deduplicationLock) {
+            if (knownAddressIds != null) {
+                knownAddressIds.clear();
+            }
+            knownAddressKeys.clear();
+        }
+    }
+
+    /**
+     * Saves the address, or with deduplication on, gives it the id of an existing equal address.
+     * Looks in the cache first and falls back to one lookup on the unique CONTENT_KEY index before inserting;
+     * an insert that loses a race with another saver reads the winner's row instead.
+     * <p>
+     * Addresses are equal when their fields match after trimming and collapsing inner whitespace. The row
+     * keeps the fields as the first saver passed them. Rows inserted by {@link #save(Object)} have no content
+     * key and rows updated through this repository lose it, so neither is ever reused.
+     *
+     * @return the address, with its id set
+     */
+    public Address saveOrReuse(Address address) {
+        if (!isDeduplicating()) {
+            return save(address);
+        }
+        if (address.id() != null) {
+            return address;
+        }
+        ContentKey key = ContentKey.of(address);
+        Long id = cachedId(key);
+        if (id == null) {
+            String digest = key.digest();
+            id = findIdByContent(digest);
+            if (id == null) {
+                id = insertOrFind(address, digest);
+            }
+            remember(key, id);
+        }
+        EntityMetadata.of(Address.class).setId(address, id);
+        return address;
+    }
+
+    private Long cachedId(ContentKey key) {
+        synchronized (deduplicationLock) {
+            return knownAddressIds == null ? null : knownAddressIds.get(key);
+        }
+    }
+
+    private void remember(ContentKey key, Long id) {
+        synchronized (deduplicationLock) {
+            if (knownAddressIds != null) {
+                knownAddressIds.put(key, id);
+                knownAddressKeys.put(id, key);
+            }
+        }
+    }
+
+    private Long findIdByContent(String digest) {
+        try {
+            return withStatement(CrudOperation.FIND_BY_ID, FIND_ID_BY_CONTENT_SQL, ps -> {
+                ps.setString(1, digest);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? rs.getLong(1) : null;
+                }
+            });
+        } catch (SQLException e) {
+            throw new UnableToSaveException("Unable to look up address with content key " + digest, e);
+        }
+    }
+
+    /**
+     * Inserts the address with its content key. Inside a transaction the insert runs under a savepoint,
+     * so a duplicate key rolls back only the insert before the existing row is read.
+     */
+    private Long insertOrFind(Address address, String digest) {
+        Long id;
+        try {
+            id = withStatement(CrudOperation.SAVE, SAVE_WITH_CONTENT_KEY_SQL, ps -> {
+                Connection connection = ps.getConnection();
+                Savepoint savepoint = connection.getAutoCommit() ? null : connection.setSavepoint();
+                mapForSave(address, ps);
+                ps.setString(9, digest);
+                try {
+                    ps.executeUpdate();
+                } catch (SQLException e) {
+                    if (!UNIQUE_VIOLATION.equals(e.getSQLState())) throw e;
+                    if (savepoint != null) connection.rollback(savepoint);
+                    return null;
+                }
+                if (savepoint != null) connection.releaseSavepoint(savepoint);
+                recordRows(CrudOperation.SAVE, 1);
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    return rs.next() ? rs.getLong(1) : null;
+                }
+            });
+        } catch (SQLException e) {
+            throw new UnableToSaveException("Tried to save address: " + address, e);
+        }
+        if (id == null) {
+            id = findIdByContent(digest);
+            if (id == null) {
+                throw new UnableToSaveException("Address with content key " + digest + " was neither inserted nor found");
+            }
+        }
+        return id;
+    }
+
+    /**
+     * Registers a callback for the id of every address this repository saves, updates or deletes, so caches
+     * of entities that embed addresses can drop them.
+     */
+    void addInvalidationListener(LongConsumer listener) {
+        invalidationListeners.add(listener);
+    }
+
+    @Override
+    protected void postInvalidate(Long id) {
+        if (id == null) return;
+        synchronized (deduplicationLock) {
+            ContentKey key = knownAddressKeys.remove(id);
+            if (key != null && knownAddressIds != null) {
+                knownAddressIds.remove(key);
+            }
+        }
+        invalidationListeners.forEach(listener -> listener.accept(id));
+    }
+
     @Override
     @SQL(operationType = CrudOperation.FIND_BY_ID, value = """
             SELECT ID, STREET_ADDRESS, ADDRESS2, CITY, STATE, POSTCODE, COUNTY, REGION, COUNTRY 
             FROM ADDRESSES 
             WHERE ID=?
             """)
+    @SQL(operationType = CrudOperation.FIND_ALL_BY_ID, value = """
+            SELECT ID, STREET_ADDRESS, ADDRESS2, CITY, STATE, POSTCODE, COUNTY, REGION, COUNTRY
+            FROM ADDRESSES
+            WHERE ID = ANY(?)
+            """)
+    @SQL(operationType = CrudOperation.DELETE_ONE, value = "DELETE FROM ADDRESSES WHERE ID=?")
+    @SQL(operationType = CrudOperation.DELETE_MANY, value = "DELETE FROM ADDRESSES WHERE ID = ANY(?)")
     Address extractEntityFromResultSet(ResultSet rs) throws SQLException {
         long id = rs.getLong("ID");
+        Session session = Session.current();
+        if (session != null) {
+            Address known = session.find(Address.class, id);
+            if (known != null) return known;
+        }
         String streetAddress = rs.getString("STREET_ADDRESS");
         String address2 = rs.getString("ADDRESS2");
         String city = rs.getString("CITY");
@@ -31,7 +261,8 @@ public class AddressRepository extends CrudRepository<Address> {
         String county = rs.getString("COUNTY");
         Region region = Region.valueOf(rs.getString("REGION").toUpperCase());
         String country = rs.getString("COUNTRY");
-        return new Address(id, streetAddress, address2, city, state, postcode, country, county, region);
+        Address address = new Address(id, streetAddress, address2, city, state, postcode, country, county, region);
+        return session == null ? address : session.register(Address.class, id, address);
     }
 
     @Override
@@ -50,7 +281,10 @@ public class AddressRepository extends CrudRepository<Address> {
     }
 
     @Override
-    protected void mapForUpdate(Address entity, PreparedStatement ps) throws SQLException {
-
+    @SQL(operationType = CrudOperation.UPDATE, value = """
+        UPDATE ADDRESSES SET STREET_ADDRESS=?, ADDRESS2=?, CITY=?, STATE=?, POSTCODE=?, COUNTY=?, REGION=?, COUNTRY=?, CONTENT_KEY=NULL WHERE ID=?
+        """)
+    protected void mapForUpdate(Address address, PreparedStatement ps) throws SQLException {
+        mapForSave(address, ps);
     }
 }
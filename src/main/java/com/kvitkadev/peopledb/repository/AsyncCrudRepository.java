@@ -0,0 +1,200 @@
+package com.kvitkadev.peopledb.repository;
+
+import com.kvitkadev.peopledb.exception.DataException;
+import com.kvitkadev.peopledb.model.LookupResult;
+import com.kvitkadev.peopledb.query.Criteria;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Runs the operations of a {@link CrudRepository} off the calling thread and returns {@link CompletableFuture}s.
+ * <p>
+ * Operations run on virtual threads when the JVM has them (Java 21+), and on a fixed pool with one platform
+ * thread per connection otherwise. Either way, a semaphore sized to the repository's
+ * {@link com.kvitkadev.peopledb.connection.ConnectionProvider#maxConnections() maxConnections} keeps the
+ * number of operations running JDBC at once within what the connection provider can serve.
+ * <p>
+ * Operations do not see the caller's {@link Session}, which is bound to the calling thread.
+ */
+public class AsyncCrudRepository<T> implements AutoCloseable {
+    static final int DEFAULT_FAN_OUT_CHUNK_SIZE = 500;
+
+    private final CrudRepository<T> repository;
+    private final Semaphore permits;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private volatile int fanOutChunkSize = DEFAULT_FAN_OUT_CHUNK_SIZE;
+
+    AsyncCrudRepository(CrudRepository<T> repository) {
+        this(repository, null);
+    }
+
+    /**
+     * @param executor runs the operations; when {@code null} the repository creates and owns its executor
+     */
+    AsyncCrudRepository(CrudRepository<T> repository, Executor executor) {
+        this.repository = repository;
+        int maxConnections = repository.getConnectionProvider().maxConnections();
+        this.permits = new Semaphore(maxConnections, true);
+        this.ownedExecutor = executor == null ? newExecutor(maxConnections) : null;
+        this.executor = executor == null ? ownedExecutor : executor;
+    }
+
+    /**
+     * @return a virtual-thread-per-task executor where available, otherwise a fixed pool of daemon threads
+     */
+    static ExecutorService newExecutor(int platformThreads) {
+        try {
+            Method virtualThreads = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) virtualThreads.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            AtomicInteger counter = new AtomicInteger();
+            ThreadFactory daemonThreads = runnable -> {
+                Thread thread = new Thread(runnable, "peopledb-async-" + counter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            };
+            return Executors.newFixedThreadPool(platformThreads, daemonThreads);
+        }
+    }
+
+    /**
+     * Runs the operation on the executor once a connection permit is free.
+     */
+    protected <R> CompletableFuture<R> supply(Supplier<R> operation) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DataException("Interrupted while waiting for a connection", e);
+            }
+            try {
+                return operation.get();
+            } finally {
+                permits.release();
+            }
+        }, executor);
+    }
+
+    public CompletableFuture<T> saveAsync(T entity) {
+        return supply(() -> repository.save(entity));
+    }
+
+    public CompletableFuture<Long> saveAllAsync(Iterable<T> entities) {
+        return supply(() -> repository.saveAll(entities));
+    }
+
+    public CompletableFuture<Optional<T>> findByIdAsync(Long id) {
+        return supply(() -> repository.findById(id));
+    }
+
+    public CompletableFuture<List<T>> findAllAsync() {
+        return supply(repository::findAll);
+    }
+
+    /**
+     * Splits the ids into chunks of {@link #setFanOutChunkSize(int) fanOutChunkSize}, looks the chunks up in
+     * parallel and merges the results back into request order.
+     */
+    public CompletableFuture<LookupResult<T>> findAllByIdAsync(Collection<Long> ids) {
+        List<Long> distinctIds = ids.stream().filter(Objects::nonNull).distinct().toList();
+        int chunkSize = fanOutChunkSize;
+        List<CompletableFuture<LookupResult<T>>> parts = new ArrayList<>();
+        for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+            List<Long> chunk = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size()));
+            parts.add(supply(() -> repository.findAllById(chunk)));
+        }
+        return CompletableFuture.allOf(parts.toArray(CompletableFuture[]::new))
+                .thenApply(ignored -> merge(distinctIds, parts));
+    }
+
+    private LookupResult<T> merge(List<Long> distinctIds, List<CompletableFuture<LookupResult<T>>> parts) {
+        Map<Long, T> foundById = new HashMap<>(Math.max(16, distinctIds.size() * 4 / 3 + 1));
+        for (CompletableFuture<LookupResult<T>> part : parts) {
+            for (T entity : part.join().found()) {
+                foundById.put(EntityMetadata.of(entity.getClass()).getId(entity), entity);
+            }
+        }
+        List<T> found = new ArrayList<>(foundById.size());
+        List<Long> missingIds = new ArrayList<>();
+        for (Long id : distinctIds) {
+            T entity = foundById.get(id);
+            if (entity != null) {
+                found.add(entity);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        return new LookupResult<>(found, missingIds);
+    }
+
+    public CompletableFuture<Long> countAsync() {
+        return supply(repository::count);
+    }
+
+    public CompletableFuture<Void> updateAsync(T entity) {
+        return supply(() -> {
+            repository.update(entity);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Long> updateAllAsync(Iterable<T> entities) {
+        return supply(() -> repository.updateAll(entities));
+    }
+
+    public CompletableFuture<Void> deleteAsync(T entity) {
+        return supply(() -> {
+            repository.delete(entity);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Long> deleteAllByIdAsync(Collection<Long> ids) {
+        return supply(() -> repository.deleteAllById(ids));
+    }
+
+    public CompletableFuture<Long> deleteWhereAsync(Criteria<T> criteria) {
+        return supply(() -> repository.deleteWhere(criteria));
+    }
+
+    public void setFanOutChunkSize(int fanOutChunkSize) {
+        if (fanOutChunkSize < 1) {
+            throw new IllegalArgumentException("Fan-out chunk size must be positive: " + fanOutChunkSize);
+        }
+        this.fanOutChunkSize = fanOutChunkSize;
+    }
+
+    /**
+     * @return connection permits not taken by running operations
+     */
+    public int availablePermits() {
+        return permits.availablePermits();
+    }
+
+    /**
+     * Shuts down the executor if this repository created it. Operations already submitted still run.
+     */
+    @Override
+    public void close() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+}
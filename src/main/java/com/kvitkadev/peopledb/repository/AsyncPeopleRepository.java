@@ -0,0 +1,37 @@
+package com.kvitkadev.peopledb.repository;
+
+import com.kvitkadev.peopledb.model.FetchPlan;
+import com.kvitkadev.peopledb.model.Person;
+import com.kvitkadev.peopledb.query.SalaryAggregation;
+import com.kvitkadev.peopledb.query.SalaryStatistics;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+
+public class AsyncPeopleRepository extends AsyncCrudRepository<Person> {
+    private final PeopleRepository repository;
+
+    public AsyncPeopleRepository(PeopleRepository repository) {
+        super(repository);
+        this.repository = repository;
+    }
+
+    public AsyncPeopleRepository(PeopleRepository repository, Executor executor) {
+        super(repository, executor);
+        this.repository = repository;
+    }
+
+    public CompletableFuture<Optional<Person>> findByIdAsync(Long id, FetchPlan plan) {
+        return supply(() -> repository.findById(id, plan));
+    }
+
+    public CompletableFuture<List<SalaryStatistics>> aggregateSalariesAsync(SalaryAggregation aggregation) {
+        return supply(() -> repository.aggregateSalaries(aggregation));
+    }
+
+    public PeopleRepository getRepository() {
+        return repository;
+    }
+}
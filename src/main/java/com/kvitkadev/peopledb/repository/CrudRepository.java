@@ -1,194 +1,1048 @@
 package com.kvitkadev.peopledb.repository;
 
-import com.kvitkadev.peopledb.annotation.Id;
-import com.kvitkadev.peopledb.annotation.MultiSQL;
-import com.kvitkadev.peopledb.annotation.SQL;
+import com.kvitkadev.peopledb.cache.EntityCache;
+import com.kvitkadev.peopledb.connection.ConnectionLease;
+import com.kvitkadev.peopledb.connection.ConnectionProvider;
+import com.kvitkadev.peopledb.connection.SingleConnectionProvider;
 import com.kvitkadev.peopledb.exception.DataException;
 import com.kvitkadev.peopledb.exception.UnableToSaveException;
+import com.kvitkadev.peopledb.jfr.ResultSetMappingEvent;
+import com.kvitkadev.peopledb.jfr.SqlExecutionEvent;
+import com.kvitkadev.peopledb.metrics.RepositoryMetrics;
+import com.kvitkadev.peopledb.metrics.SlowQueryLog;
 import com.kvitkadev.peopledb.model.CrudOperation;
+import com.kvitkadev.peopledb.model.LookupResult;
+import com.kvitkadev.peopledb.model.Page;
+import com.kvitkadev.peopledb.query.Criteria;
 
 import java.sql.*;
 import java.util.*;
-import java.util.function.Supplier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
-
-import static java.util.stream.Collectors.joining;
+import java.util.stream.StreamSupport;
 
 abstract class CrudRepository<T> {
-    protected Connection connection;
-    protected PreparedStatement findPs;
+    static final int DEFAULT_BATCH_SIZE = 1000;
+    static final int DEFAULT_FETCH_SIZE = 1000;
+    static final int DEFAULT_LOOKUP_CHUNK_SIZE = 1000;
+    static final int MAX_ROW_MAPPERS = 1024;
+
+    /**
+     * The execution event recording on this thread, so {@link #recordRows(CrudOperation, long)} can add to it.
+     * Only set while the event is enabled in a running recording.
+     */
+    private static final ThreadLocal<SqlExecutionEvent> CURRENT_EXECUTION = new ThreadLocal<>();
+
+    private final RepositoryMetadata metadata = RepositoryMetadata.of(getClass());
+    private final ConcurrentHashMap<String, RowMapper<T>> rowMappers = new ConcurrentHashMap<>();
+    protected final ConnectionProvider connections;
+    private volatile int batchSize = DEFAULT_BATCH_SIZE;
+    private volatile int fetchSize = DEFAULT_FETCH_SIZE;
+    private volatile int lookupChunkSize = DEFAULT_LOOKUP_CHUNK_SIZE;
+    private volatile int deleteChunkSize = DEFAULT_LOOKUP_CHUNK_SIZE;
+    private volatile EntityCache<T> entityCache;
+    private volatile RepositoryMetrics metrics;
+    private volatile SlowQueryLog slowQueryLog;
+    private volatile int updateIdParameter;
 
     public CrudRepository(Connection connection) {
-        this.connection = connection;
-        try {
-            this.findPs = connection.prepareStatement(getSqlByAnnotation(CrudOperation.FIND_BY_ID, this::getFindByIdSql));
-        } catch (SQLException e) {
-            throw new DataException("Unable to create prepared statements for CrudRepository", e);
+        this(new SingleConnectionProvider(connection));
+    }
+
+    /**
+     * Every operation leases a connection from the provider for its duration, so a repository
+     * backed by a {@link com.kvitkadev.peopledb.connection.ConnectionPool} can be shared between threads.
+     */
+    public CrudRepository(ConnectionProvider connections) {
+        this.connections = connections;
+    }
+
+    @FunctionalInterface
+    interface StatementCallback<R> {
+        R doWith(PreparedStatement ps) throws SQLException;
+    }
+
+    /**
+     * Runs the callback with the operation's cached statement on a leased connection,
+     * handing both back afterwards; a statement whose callback failed is closed instead of cached.
+     * Each run is timed for the metrics and emitted as a {@link SqlExecutionEvent}.
+     * Runs over the {@link #setSlowQueryLog(SlowQueryLog) slow query log} threshold are logged, with their parameters.
+     */
+    <R> R withStatement(CrudOperation operation, StatementCallback<R> callback) throws SQLException {
+        return withStatement(operation, getSqlByAnnotation(operation), callback);
+    }
+
+    /**
+     * Same as {@link #withStatement(CrudOperation, StatementCallback)} for repository specific SQL.
+     * The operation tells how the statement is prepared and is part of its cache key.
+     */
+    <R> R withStatement(CrudOperation operation, String sql, StatementCallback<R> callback) throws SQLException {
+        RepositoryMetrics recorder = metrics;
+        SlowQueryLog slowLog = slowQueryLog;
+        long startNanos = recorder == null && slowLog == null ? 0L : System.nanoTime();
+        boolean failed = true;
+        SqlExecutionEvent event = new SqlExecutionEvent();
+        boolean traced = event.isEnabled();
+        SqlExecutionEvent outer = null;
+        if (traced) {
+            outer = CURRENT_EXECUTION.get();
+            CURRENT_EXECUTION.set(event);
+            event.begin();
+        }
+        try (ConnectionLease lease = connections.acquire()) {
+            StatementCache statements = lease.statements();
+            PreparedStatement ps = statements.acquire(operation, sql);
+            try {
+                ParameterCapture capture = slowLog == null ? null : ParameterCapture.of(ps);
+                R result = callback.doWith(capture == null ? ps : capture.statement());
+                failed = false;
+                if (capture != null) {
+                    long elapsedNanos = System.nanoTime() - startNanos;
+                    if (slowLog.isSlow(elapsedNanos)) {
+                        slowLog.record(lease.connection(), getClass(), operation, sql, capture.parameters(),
+                                elapsedNanos);
+                    }
+                }
+                return result;
+            } finally {
+                if (failed) {
+                    statements.discard(ps);
+                } else {
+                    statements.release(operation, sql, ps);
+                }
+            }
+        } finally {
+            if (recorder != null) {
+                recorder.recordExecution(getClass(), operation, System.nanoTime() - startNanos, failed);
+            }
+            if (traced) {
+                CURRENT_EXECUTION.set(outer);
+                event.commit(operation, sql, metadata.entityType(), !failed);
+            }
+        }
+    }
+
+    void recordRows(CrudOperation operation, long rows) {
+        SqlExecutionEvent execution = CURRENT_EXECUTION.get();
+        if (execution != null) {
+            execution.addRows(rows);
+        }
+        RepositoryMetrics recorder = metrics;
+        if (recorder != null) {
+            recorder.recordRows(getClass(), operation, rows);
+        }
+    }
+
+    void recordBatch(CrudOperation operation, int batchSize) {
+        RepositoryMetrics recorder = metrics;
+        if (recorder != null) {
+            recorder.recordBatch(getClass(), operation, batchSize);
+        }
+        recordRows(operation, batchSize);
+    }
+
+    /**
+     * Commits a mapping event begun before the mapping loop. {@code sql} may be null for annotated SQL.
+     */
+    private void commitMapping(ResultSetMappingEvent event, CrudOperation operation, String sql, long entities) {
+        if (event.isEnabled()) {
+            event.commit(operation, sql != null ? sql : getSqlByAnnotation(operation), metadata.entityType(), entities);
         }
     }
 
     public T save(T entity) throws UnableToSaveException {
+        boolean saved;
         try {
-            PreparedStatement ps = connection.prepareStatement(getSqlByAnnotation(CrudOperation.SAVE, this::getSaveSql),
-                    PreparedStatement.RETURN_GENERATED_KEYS);
-            mapForSave(entity, ps);
-            ps.executeUpdate();
-            ResultSet rs = ps.getGeneratedKeys();
-            while (rs.next()) {
-                long id = rs.getLong(1);
-                setIdByAnnotation(entity, id);
-                postSave(entity);
-//                System.out.println(entity);
+            saved = withStatement(CrudOperation.SAVE, ps -> {
+                mapForSave(entity, ps);
+                ps.executeUpdate();
+                try (ResultSet rs = ps.getGeneratedKeys()) {
+                    if (rs.next()) {
+                        setIdByAnnotation(entity, rs.getLong(1));
+                        return true;
+                    }
+                    return false;
+                }
+            });
+        } catch (SQLException e) {
+            throw new UnableToSaveException("Tried to save person: " + entity, e);
+        }
+        if (saved) {
+            recordRows(CrudOperation.SAVE, 1);
+            invalidate(entity);
+            Session session = Session.current();
+            if (session != null) {
+                attach(session, entity);
             }
+            markClean(entity);
+            postSave(entity);
+        }
+        return entity;
+    }
+
+    public long saveAll(Iterable<T> entities) throws UnableToSaveException {
+        return saveAll(StreamSupport.stream(entities.spliterator(), false));
+    }
+
+    /**
+     * Saves entities through a single SAVE statement, sending them to the database
+     * in JDBC batches of {@link #setBatchSize(int) batchSize}. Generated ids are assigned
+     * back to the entities in batch order, after which {@link #postSave(Object)} is called for each.
+     *
+     * @return the number of saved entities
+     */
+    public long saveAll(Stream<T> entities) throws UnableToSaveException {
+        int batchSize = this.batchSize;
+        List<T> batch = new ArrayList<>(batchSize);
+        long[] savedCount = {0L};
+        try {
+            withStatement(CrudOperation.SAVE, ps -> {
+                Iterator<T> iterator = entities.iterator();
+                while (iterator.hasNext()) {
+                    T entity = iterator.next();
+                    mapForSave(entity, ps);
+                    ps.addBatch();
+                    batch.add(entity);
+                    if (batch.size() == batchSize) {
+                        savedCount[0] += executeSaveBatch(ps, batch);
+                    }
+                }
+                if (!batch.isEmpty()) {
+                    savedCount[0] += executeSaveBatch(ps, batch);
+                }
+                return null;
+            });
         } catch (SQLException e) {
-            e.printStackTrace();
-            throw new UnableToSaveException("Tried to save person: " + entity);
+            throw new UnableToSaveException("Tried to save batch of " + batch.size() + " entities after "
+                    + savedCount[0] + " saved", e);
         }
+        return savedCount[0];
+    }
 
-        return entity;
+    private int executeSaveBatch(PreparedStatement ps, List<T> batch) throws SQLException {
+        ps.executeBatch();
+        try (ResultSet rs = ps.getGeneratedKeys()) {
+            int idx = 0;
+            while (rs.next() && idx < batch.size()) {
+                setIdByAnnotation(batch.get(idx++), rs.getLong(1));
+            }
+        }
+        recordBatch(CrudOperation.SAVE, batch.size());
+        batch.forEach(this::markClean);
+        batch.forEach(this::postSave);
+        int size = batch.size();
+        batch.clear();
+        return size;
+    }
+
+    public void setBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
     }
 
+    /**
+     * Returns the entity from the {@link #setEntityCache(EntityCache) entity cache} when one is set,
+     * running the FIND_BY_ID query on a miss. The cache keeps its own copy and every call gets a fresh one,
+     * so changes to a found entity are not seen by other callers until it is updated.
+     */
     public Optional<T> findById(Long id) {
-        T foundEntity = null;
+        EntityCache<T> cache = entityCache;
+        if (cache == null) {
+            return loadById(id);
+        }
+        Optional<T> found = cache.get(id, key -> loadById(key).map(this::copyForCache), this::relatedIds)
+                .map(this::copyForCache);
+        Session session = Session.current();
+        if (session != null && found.isPresent()) {
+            return Optional.of(attach(session, found.get()));
+        }
+        return found;
+    }
+
+    private Optional<T> loadById(Long id) {
         try {
-            findPs.setLong(1, id);
-            ResultSet rs = findPs.executeQuery();
-            while (rs.next()) {
-                foundEntity = extractEntityFromResultSet(rs);
-            }
+            return withStatement(CrudOperation.FIND_BY_ID, ps -> {
+                T foundEntity = null;
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    RowMapper<T> mapper = rowMapper(CrudOperation.FIND_BY_ID, rs);
+                    ResultSetMappingEvent mapping = new ResultSetMappingEvent();
+                    mapping.begin();
+                    while (rs.next()) {
+                        foundEntity = mapper.mapEntity(rs);
+                    }
+                    commitMapping(mapping, CrudOperation.FIND_BY_ID, null, foundEntity == null ? 0 : 1);
+                }
+                recordRows(CrudOperation.FIND_BY_ID, foundEntity == null ? 0 : 1);
+                return Optional.ofNullable(foundEntity);
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        return Optional.ofNullable(foundEntity);
+    }
+
+    /**
+     * Looks up many entities with one FIND_ALL_BY_ID query per {@link #setLookupChunkSize(int) lookupChunkSize}
+     * ids, binding each chunk as a single array parameter.
+     *
+     * @return the entities in the order of {@code ids} (duplicates collapsed), plus the ids that were not found
+     */
+    public LookupResult<T> findAllById(Collection<Long> ids) {
+        List<Long> distinctIds = ids.stream().filter(Objects::nonNull).distinct().toList();
+        Map<Long, T> foundById = new HashMap<>(Math.max(16, distinctIds.size() * 4 / 3 + 1));
+        int chunkSize = lookupChunkSize;
+        try {
+            for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+                Object[] chunk = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size())).toArray();
+                withStatement(CrudOperation.FIND_ALL_BY_ID, ps -> {
+                    Array idArray = ps.getConnection().createArrayOf("BIGINT", chunk);
+                    try {
+                        ps.setArray(1, idArray);
+                        try (ResultSet rs = ps.executeQuery()) {
+                            RowMapper<T> mapper = rowMapper(CrudOperation.FIND_ALL_BY_ID, rs);
+                            ResultSetMappingEvent mapping = new ResultSetMappingEvent();
+                            mapping.begin();
+                            int mapped = 0;
+                            while (rs.next()) {
+                                T entity = mapper.mapEntity(rs);
+                                foundById.put(getIdByAnnotation(entity), entity);
+                                mapped++;
+                            }
+                            commitMapping(mapping, CrudOperation.FIND_ALL_BY_ID, null, mapped);
+                            recordRows(CrudOperation.FIND_ALL_BY_ID, mapped);
+                        }
+                    } finally {
+                        idArray.free();
+                    }
+                    return null;
+                });
+            }
+        } catch (SQLException e) {
+            throw new DataException("Unable to find " + distinctIds.size() + " entities by id", e);
+        }
+        List<T> found = new ArrayList<>(foundById.size());
+        List<Long> missingIds = new ArrayList<>();
+        for (Long id : distinctIds) {
+            T entity = foundById.get(id);
+            if (entity != null) {
+                found.add(entity);
+            } else {
+                missingIds.add(id);
+            }
+        }
+        return new LookupResult<>(found, missingIds);
+    }
+
+    public void setLookupChunkSize(int lookupChunkSize) {
+        if (lookupChunkSize < 1) {
+            throw new IllegalArgumentException("Lookup chunk size must be positive: " + lookupChunkSize);
+        }
+        this.lookupChunkSize = lookupChunkSize;
     }
 
     public List<T> findAll() {
-        List<T> entities = new ArrayList<>();
         try {
-            PreparedStatement ps = connection.prepareStatement(
-                    getSqlByAnnotation(CrudOperation.FIND_ALL, this::getFindAllSql),
-                    ResultSet.TYPE_SCROLL_INSENSITIVE,
-                    ResultSet.CONCUR_READ_ONLY);
+            return withStatement(CrudOperation.FIND_ALL, ps -> {
+                List<T> entities = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    RowMapper<T> mapper = rowMapper(CrudOperation.FIND_ALL, rs);
+                    ResultSetMappingEvent mapping = new ResultSetMappingEvent();
+                    mapping.begin();
+                    while (rs.next()) {
+                        T entity = mapper.mapEntity(rs);
+                        entities.add(entity);
+                    }
+                    commitMapping(mapping, CrudOperation.FIND_ALL, null, entities.size());
+                }
+                recordRows(CrudOperation.FIND_ALL, entities.size());
+                return entities;
+            });
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Reads one page of entities ordered by id, starting right after {@code afterId}.
+     * The query seeks on the id instead of skipping rows, so deep pages cost the same as the first one.
+     *
+     * @param afterId   cursor of the previous page, or {@code null} to start at the first (FORWARD)
+     *                  or last (BACKWARD) entity
+     * @param limit     maximum number of entities on the page
+     * @param direction FORWARD for ascending ids, BACKWARD for descending ids
+     */
+    public Page<T> findPage(Long afterId, int limit, Page.Direction direction) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Page limit must be positive: " + limit);
+        }
+        CrudOperation operation = direction == Page.Direction.FORWARD
+                ? CrudOperation.FIND_PAGE_FORWARD
+                : CrudOperation.FIND_PAGE_BACKWARD;
+        long cursor = afterId != null ? afterId
+                : direction == Page.Direction.FORWARD ? Long.MIN_VALUE : Long.MAX_VALUE;
+        List<T> content = new ArrayList<>(limit);
+        boolean hasNext;
+        try {
+            hasNext = withStatement(operation, ps -> {
+                ps.setLong(1, cursor);
+                ps.setInt(2, limit + 1);
+                boolean more = false;
+                try (ResultSet rs = ps.executeQuery()) {
+                    RowMapper<T> mapper = rowMapper(operation, rs);
+                    ResultSetMappingEvent mapping = new ResultSetMappingEvent();
+                    mapping.begin();
+                    while (rs.next()) {
+                        if (content.size() == limit) {
+                            more = true;
+                            break;
+                        }
+                        content.add(mapper.mapRow(rs));
+                    }
+                    commitMapping(mapping, operation, null, content.size());
+                }
+                recordRows(operation, content.size());
+                return more;
+            });
+        } catch (SQLException e) {
+            throw new DataException("Unable to read page after " + afterId, e);
+        }
+        Long nextCursor = hasNext ? getIdByAnnotation(content.get(content.size() - 1)) : null;
+        return new Page<>(content, direction, nextCursor);
+    }
+
+    /**
+     * Streams every entity over a forward-only cursor, mapping one row at a time with
+     * {@link #extractEntityFromRow(ResultSet)}. Rows are pulled from the driver {@link #setFetchSize(int) fetchSize}
+     * at a time, so memory use does not grow with the table (with H2 add {@code LAZY_QUERY_EXECUTION=1}
+     * to the URL to keep the server side lazy as well).
+     * <p>
+     * The stream owns its own statement and keeps its connection leased until it is exhausted or closed,
+     * so use it in try-with-resources when it may not be consumed fully. It may be consumed and closed on any
+     * thread. With a {@link SingleConnectionProvider} the open stream holds the only connection, so repository
+     * calls from other threads wait until it is closed; calls from the thread that opened it share the lease.
+     * Streams are not recorded in the {@link #setSlowQueryLog(SlowQueryLog) slow query log}.
+     */
+    public Stream<T> stream() {
+        return stream(fetchSize);
+    }
+
+    private Stream<T> stream(int fetchSize) {
+        long startNanos = metrics == null ? 0L : System.nanoTime();
+        SqlExecutionEvent event = new SqlExecutionEvent();
+        event.begin();
+        ConnectionLease lease = connections.acquire();
+        PreparedStatement ps = null;
+        try {
+            ps = lease.connection().prepareStatement(getSqlByAnnotation(CrudOperation.STREAM_ALL),
+                    ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            ps.setFetchSize(fetchSize);
             ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                T entity = extractEntityFromResultSet(rs);
-                entities.add(entity);
+            ResultSetSpliterator spliterator = new ResultSetSpliterator(lease, ps, rs,
+                    rowMapper(CrudOperation.STREAM_ALL, rs), startNanos, event);
+            return StreamSupport.stream(spliterator, false).onClose(spliterator::close);
+        } catch (SQLException e) {
+            closeQuietly(ps);
+            lease.close();
+            RepositoryMetrics recorder = metrics;
+            if (recorder != null) {
+                recorder.recordExecution(getClass(), CrudOperation.STREAM_ALL, System.nanoTime() - startNanos, true);
+            }
+            event.commit(CrudOperation.STREAM_ALL, getSqlByAnnotation(CrudOperation.STREAM_ALL), metadata.entityType(),
+                    false);
+            throw new DataException("Unable to stream entities", e);
+        }
+    }
+
+    /**
+     * Publishes every entity with backpressure, {@link #setFetchSize(int) fetchSize} rows ahead of demand,
+     * reading each subscription's cursor on its own daemon thread.
+     */
+    public Flow.Publisher<T> publish() {
+        return publish(fetchSize > 0 ? fetchSize : DEFAULT_FETCH_SIZE);
+    }
+
+    public Flow.Publisher<T> publish(int prefetch) {
+        return publish(prefetch, EntityPublisher.threadPerSubscription());
+    }
+
+    /**
+     * Publishes every entity over the same cursor as {@link #stream()}. Rows are read at most {@code prefetch}
+     * ahead of what subscribers requested, and cancelling a subscription closes its cursor.
+     *
+     * @param executor runs one long-lived task per subscription, which owns the cursor and its connection
+     */
+    public Flow.Publisher<T> publish(int prefetch, Executor executor) {
+        return new EntityPublisher<>(this::stream, prefetch, executor);
+    }
+
+    private final class ResultSetSpliterator extends Spliterators.AbstractSpliterator<T> {
+        private final ConnectionLease lease;
+        private final PreparedStatement ps;
+        private final ResultSet rs;
+        private final RowMapper<T> mapper;
+        private final long startNanos;
+        private final SqlExecutionEvent event;
+        private long rows;
+        private boolean failed;
+        private boolean closed;
+
+        ResultSetSpliterator(ConnectionLease lease, PreparedStatement ps, ResultSet rs, RowMapper<T> mapper,
+                             long startNanos, SqlExecutionEvent event) {
+            super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+            this.lease = lease;
+            this.ps = ps;
+            this.rs = rs;
+            this.mapper = mapper;
+            this.startNanos = startNanos;
+            this.event = event;
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (closed) return false;
+            try {
+                if (!rs.next()) {
+                    close();
+                    return false;
+                }
+                action.accept(mapper.mapRow(rs));
+                rows++;
+                return true;
+            } catch (SQLException e) {
+                failed = true;
+                close();
+                throw new DataException("Unable to read next entity from stream", e);
+            }
+        }
 
+        /**
+         * Also records the whole life of the cursor, open to close, as one STREAM_ALL execution
+         * in the metrics and as one {@link SqlExecutionEvent}.
+         */
+        synchronized void close() {
+            if (closed) return;
+            closed = true;
+            closeQuietly(ps);
+            lease.close();
+            RepositoryMetrics recorder = metrics;
+            if (recorder != null) {
+                recorder.recordExecution(CrudRepository.this.getClass(), CrudOperation.STREAM_ALL,
+                        System.nanoTime() - startNanos, failed);
+                recorder.recordRows(CrudRepository.this.getClass(), CrudOperation.STREAM_ALL, rows);
             }
+            if (event.isEnabled()) {
+                event.addRows(rows);
+                event.commit(CrudOperation.STREAM_ALL, getSqlByAnnotation(CrudOperation.STREAM_ALL),
+                        metadata.entityType(), !failed);
+            }
+        }
+    }
+
+    private static void closeQuietly(Statement statement) {
+        if (statement == null) return;
+        try {
+            statement.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("Fetch size must not be negative: " + fetchSize);
+        }
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Finds up to {@code limit} entities matching the criteria, in id order, with one statement per criteria shape.
+     */
+    public List<T> findWhere(Criteria<T> criteria, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("Limit must be positive: " + limit);
+        }
+        String sql = getSqlByAnnotation(CrudOperation.FIND_WHERE).replace(":criteria", criteria.sql());
+        try {
+            return withStatement(CrudOperation.FIND_WHERE, sql, ps -> {
+                ps.setInt(bindCriteria(criteria, ps, 1), limit);
+                List<T> entities = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    ResultSetMappingEvent mapping = new ResultSetMappingEvent();
+                    mapping.begin();
+                    while (rs.next()) {
+                        entities.add(mapQueryRow(rs, sql));
+                    }
+                    commitMapping(mapping, CrudOperation.FIND_WHERE, sql, entities.size());
+                }
+                recordRows(CrudOperation.FIND_WHERE, entities.size());
+                return entities;
+            });
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            throw new DataException("Unable to find entities where " + criteria, e);
+        }
+    }
+
+    /**
+     * Counts matching rows in the database, without reading them.
+     */
+    public long count(Criteria<T> criteria) {
+        return queryWhere(CrudOperation.COUNT_WHERE, criteria, rs -> rs.getLong(1));
+    }
+
+    /**
+     * Checks for a matching row; the database stops at the first one.
+     */
+    public boolean exists(Criteria<T> criteria) {
+        return queryWhere(CrudOperation.EXISTS_WHERE, criteria, rs -> rs.getBoolean(1));
+    }
+
+    private interface ScalarReader<R> {
+        R read(ResultSet rs) throws SQLException;
+    }
+
+    private <R> R queryWhere(CrudOperation operation, Criteria<T> criteria, ScalarReader<R> reader) {
+        String sql = getSqlByAnnotation(operation).replace(":criteria", criteria.sql());
+        try {
+            return withStatement(operation, sql, ps -> {
+                bindCriteria(criteria, ps, 1);
+                try (ResultSet rs = ps.executeQuery()) {
+                    rs.next();
+                    return reader.read(rs);
+                }
+            });
+        } catch (SQLException e) {
+            throw new DataException("Unable to query entities where " + criteria, e);
         }
-        return entities;
+    }
+
+    /**
+     * Maps the current row of a query that selects one row per entity.
+     */
+    T mapQueryRow(ResultSet rs, String sql) throws SQLException {
+        return rowMapper(sql, rs).mapRow(rs);
     }
 
     public long count() {
-        long count = 0L;
         try {
-            PreparedStatement ps = connection.prepareStatement(getSqlByAnnotation(CrudOperation.COUNT, this::getCountSql));
-            ResultSet rs = ps.executeQuery();
-            while (rs.next()) {
-                count = rs.getLong(1);
-            }
+            return withStatement(CrudOperation.COUNT, ps -> {
+                long count = 0L;
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        count = rs.getLong(1);
+                    }
+                }
+                return count;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
         }
-        return count;
     }
 
     public void delete(T entity) {
         try {
-            PreparedStatement ps = connection.prepareStatement(getSqlByAnnotation(CrudOperation.DELETE_ONE, this::getDeleteById));
-            ps.setLong(1, getIdByAnnotation(entity));
-            ps.executeUpdate();
+            withStatement(CrudOperation.DELETE_ONE, ps -> {
+                ps.setLong(1, getIdByAnnotation(entity));
+                int deleted = ps.executeUpdate();
+                recordRows(CrudOperation.DELETE_ONE, deleted);
+                return deleted;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            invalidate(entity);
         }
+        evictFromSession(entity);
     }
 
-    private Long getIdByAnnotation(T entity) {
-        return Arrays.stream(entity.getClass().getDeclaredFields())
-                .filter(f -> f.isAnnotationPresent(Id.class))
-                .map (f -> {
-                    f.setAccessible(true);
-                    Long id = null;
-                    try {
-                        id = (long) f.get(entity);
-                    } catch (IllegalAccessException e) {
-                        throw new RuntimeException(e);
-                    }
-                    return id;
-                })
-                .findFirst().orElseThrow(() -> new RuntimeException("No ID annotated id found"));
+    private void evictFromSession(T entity) {
+        Session session = Session.current();
+        if (session != null) {
+            session.evict(entity.getClass(), getIdByAnnotation(entity));
+        }
+    }
+
+    Long getIdByAnnotation(T entity) {
+        return EntityMetadata.of(entity.getClass()).getId(entity);
     }
 
     private void setIdByAnnotation(T entity, Long id) {
-        Arrays.stream(entity.getClass().getDeclaredFields())
-            .filter(f -> f.isAnnotationPresent(Id.class))
-            .forEach (f -> {
-                f.setAccessible(true);
+        EntityMetadata.of(entity.getClass()).setId(entity, id);
+    }
+
+    public void delete(T... entities) {
+        deleteAllById(Arrays.stream(entities).map(this::getIdByAnnotation).toList());
+    }
+
+    /**
+     * Deletes by id with one DELETE_MANY statement per {@link #setDeleteChunkSize(int) deleteChunkSize} ids,
+     * binding each chunk as a single array parameter so every chunk reuses the same prepared statement.
+     *
+     * @return the number of deleted rows
+     */
+    public long deleteAllById(Collection<Long> ids) {
+        List<Long> distinctIds = ids.stream().filter(Objects::nonNull).distinct().toList();
+        int chunkSize = deleteChunkSize;
+        long deleted = 0L;
+        try {
+            for (int from = 0; from < distinctIds.size(); from += chunkSize) {
+                List<Long> chunk = distinctIds.subList(from, Math.min(from + chunkSize, distinctIds.size()));
                 try {
-                    f.set(entity, id);
-                } catch (IllegalAccessException e) {
-                    throw new RuntimeException("Unable to set id value");
+                    deleted += withStatement(CrudOperation.DELETE_MANY, ps -> {
+                        Array idArray = ps.getConnection().createArrayOf("BIGINT", chunk.toArray());
+                        try {
+                            ps.setArray(1, idArray);
+                            int affected = ps.executeUpdate();
+                            recordBatch(CrudOperation.DELETE_MANY, chunk.size());
+                            return affected;
+                        } finally {
+                            idArray.free();
+                        }
+                    });
+                } finally {
+                    chunk.forEach(this::invalidateId);
                 }
-            });
+            }
+        } catch (SQLException e) {
+            throw new DataException("Unable to delete " + distinctIds.size() + " entities after " + deleted
+                    + " deleted", e);
+        }
+        Session session = Session.current();
+        if (session != null) {
+            distinctIds.forEach(id -> session.evict(metadata.entityType(), id));
+        }
+        return deleted;
     }
 
-    public void delete(T... entities) {
+    /**
+     * Deletes every entity matching the criteria with one statement, prepared once per criteria shape.
+     * Clears the second-level cache, since the deleted ids are not known.
+     *
+     * @return the number of deleted rows
+     */
+    public long deleteWhere(Criteria<T> criteria) {
+        String sql = getSqlByAnnotation(CrudOperation.DELETE_WHERE).replace(":criteria", criteria.sql());
         try {
-            Statement stmt = connection.createStatement();
-            String ids = Arrays.stream(entities)
-                    .map(this::getIdByAnnotation)
-                    .map(String::valueOf)
-                    .collect(joining(", "));
-            stmt.executeUpdate(getSqlByAnnotation(CrudOperation.DELETE_MANY, this::getDeleteInSql).replace(":ids", ids));
+            return withStatement(CrudOperation.DELETE_WHERE, sql, ps -> {
+                bindCriteria(criteria, ps, 1);
+                long deleted = ps.executeLargeUpdate();
+                recordRows(CrudOperation.DELETE_WHERE, deleted);
+                return deleted;
+            });
         } catch (SQLException e) {
-            throw new RuntimeException(e);
+            throw new DataException("Unable to delete where " + criteria, e);
+        } finally {
+            EntityCache<T> cache = entityCache;
+            if (cache != null) {
+                cache.invalidateAll();
+            }
+        }
+    }
+
+    /**
+     * Binds the criteria's parameters starting at {@code index}.
+     *
+     * @return the index after the last bound parameter
+     */
+    static int bindCriteria(Criteria<?> criteria, PreparedStatement ps, int index) throws SQLException {
+        for (Object parameter : criteria.parameters()) {
+            ps.setObject(index++, parameter);
+        }
+        return index;
+    }
+
+    public void setDeleteChunkSize(int deleteChunkSize) {
+        if (deleteChunkSize < 1) {
+            throw new IllegalArgumentException("Delete chunk size must be positive: " + deleteChunkSize);
         }
+        this.deleteChunkSize = deleteChunkSize;
     }
 
+    /**
+     * Writes the entity's changed columns, or all columns when its changes are not tracked.
+     * Nothing is sent when a tracked entity has no changes.
+     */
     public void update(T entity) {
+        ColumnUpdate<T> columns = columnUpdate(entity);
+        if (columns != null && columns.isEmpty()) return;
+        String sql = columns == null ? getSqlByAnnotation(CrudOperation.UPDATE) : columns.sql();
         try {
-            PreparedStatement ps = connection.prepareStatement(getSqlByAnnotation(CrudOperation.UPDATE, this::getUpdateSql));
-            mapForUpdate(entity, ps);
-            ps.setLong(6, getIdByAnnotation(entity));
-            int affectedRecordCount = ps.executeUpdate();
-            System.out.println(affectedRecordCount);
+            withStatement(CrudOperation.UPDATE, sql, ps -> {
+                bindForUpdate(entity, columns, ps);
+                int updated = ps.executeUpdate();
+                recordRows(CrudOperation.UPDATE, updated);
+                return updated;
+            });
         } catch (SQLException e) {
             throw new RuntimeException(e);
+        } finally {
+            invalidate(entity);
         }
+        markClean(entity);
+    }
+
+    /**
+     * Updates entities in JDBC batches of {@link #setBatchSize(int) batchSize}, one batch per distinct set of
+     * changed columns. Tracked entities without changes are skipped.
+     *
+     * @return the number of entities written
+     */
+    public long updateAll(Iterable<T> entities) {
+        int batchSize = this.batchSize;
+        Map<String, List<T>> batches = new LinkedHashMap<>();
+        Map<String, ColumnUpdate<T>> shapes = new HashMap<>();
+        long written = 0L;
+        try {
+            for (T entity : entities) {
+                ColumnUpdate<T> columns = columnUpdate(entity);
+                if (columns != null && columns.isEmpty()) continue;
+                String sql = columns == null ? getSqlByAnnotation(CrudOperation.UPDATE) : columns.sql();
+                shapes.putIfAbsent(sql, columns);
+                List<T> batch = batches.computeIfAbsent(sql, key -> new ArrayList<>(batchSize));
+                batch.add(entity);
+                if (batch.size() == batchSize) {
+                    written += executeUpdateBatch(sql, shapes.get(sql), batch);
+                }
+            }
+            for (Map.Entry<String, List<T>> batch : batches.entrySet()) {
+                written += executeUpdateBatch(batch.getKey(), shapes.get(batch.getKey()), batch.getValue());
+            }
+        } catch (SQLException e) {
+            throw new DataException("Unable to update entities after " + written + " written", e);
+        }
+        return written;
+    }
+
+    private int executeUpdateBatch(String sql, ColumnUpdate<T> columns, List<T> batch) throws SQLException {
+        if (batch.isEmpty()) return 0;
+        try {
+            withStatement(CrudOperation.UPDATE, sql, ps -> {
+                for (T entity : batch) {
+                    bindForUpdate(entity, columns, ps);
+                    ps.addBatch();
+                }
+                int[] updated = ps.executeBatch();
+                recordBatch(CrudOperation.UPDATE, updated.length);
+                return updated;
+            });
+        } finally {
+            batch.forEach(this::invalidate);
+        }
+        batch.forEach(this::markClean);
+        int size = batch.size();
+        batch.clear();
+        return size;
+    }
+
+    private void bindForUpdate(T entity, ColumnUpdate<T> columns, PreparedStatement ps) throws SQLException {
+        if (columns == null) {
+            mapForUpdate(entity, ps);
+            ps.setLong(updateIdParameter(ps), getIdByAnnotation(entity));
+        } else {
+            columns.binder().bind(entity, ps);
+            ps.setLong(columns.columnCount() + 1, getIdByAnnotation(entity));
+        }
+    }
+
+    /**
+     * The id is the last parameter of the UPDATE statement. Its index is read from the parameter metadata of
+     * the first statement only, since the annotated UPDATE SQL never changes.
+     */
+    private int updateIdParameter(PreparedStatement ps) throws SQLException {
+        int index = updateIdParameter;
+        if (index == 0) {
+            index = ps.getParameterMetaData().getParameterCount();
+            updateIdParameter = index;
+        }
+        return index;
+    }
+
+    /**
+     * UPDATE statement for a set of changed columns, with the id as the parameter after the columns.
+     *
+     * @param binder binds the changed columns' values from parameter 1 on
+     */
+    record ColumnUpdate<T>(String sql, int columnCount, StatementBinder<T> binder) {
+
+        boolean isEmpty() {
+            return columnCount == 0;
+        }
+    }
+
+    interface StatementBinder<T> {
+        void bind(T entity, PreparedStatement ps) throws SQLException;
+    }
+
+    @SuppressWarnings("unchecked")
+    T attach(Session session, T entity) {
+        return session.register((Class<T>) entity.getClass(), getIdByAnnotation(entity), entity);
+    }
+
+    void invalidate(T entity) {
+        invalidateId(getIdByAnnotation(entity));
+    }
+
+    private void invalidateId(Long id) {
+        EntityCache<T> cache = entityCache;
+        if (cache != null) {
+            cache.invalidate(id);
+        }
+        postInvalidate(id);
+    }
+
+    /**
+     * Enables a second-level cache for {@link #findById(Long)}, or disables it when {@code null}.
+     * save, update and delete evict the ids they touch, and the cached entities that refer to those ids.
+     */
+    public void setEntityCache(EntityCache<T> entityCache) {
+        this.entityCache = entityCache;
+    }
+
+    /**
+     * Starts reporting statement latencies, rows, batch sizes and errors to {@code metrics}, or stops when
+     * {@code null}, the default, in which case nothing is timed.
+     */
+    public void setMetrics(RepositoryMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public Optional<RepositoryMetrics> getMetrics() {
+        return Optional.ofNullable(metrics);
+    }
+
+    /**
+     * Starts logging statements that take longer than the log's threshold, or stops when {@code null}, the default.
+     * Bound parameters are only captured while a log is set. {@link #stream()} and {@link #publish()} are not
+     * logged: their cursor stays open while the caller consumes it, so their elapsed time is the caller's, not
+     * the query's.
+     */
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        this.slowQueryLog = slowQueryLog;
     }
 
-    private String getSqlByAnnotation(CrudOperation operationTYpe, Supplier<String> sqlGetter) {
-        Stream<SQL> multiSqlStream = Arrays.stream(this.getClass().getDeclaredMethods())
-                .filter(m -> m.isAnnotationPresent(MultiSQL.class))
-                .map(m -> m.getAnnotation(MultiSQL.class))
-                .map(msql -> msql.value())
-                .flatMap(Arrays::stream);
+    public Optional<SlowQueryLog> getSlowQueryLog() {
+        return Optional.ofNullable(slowQueryLog);
+    }
 
+    public Optional<EntityCache<T>> getEntityCache() {
+        return Optional.ofNullable(entityCache);
+    }
 
-        Stream<SQL> sqlStream = Arrays.stream(this.getClass().getDeclaredMethods())
-                .filter(m -> m.isAnnotationPresent(SQL.class))
-                .map(m -> m.getAnnotation(SQL.class));
+    public ConnectionProvider getConnectionProvider() {
+        return connections;
+    }
 
-        return Stream.concat(multiSqlStream, sqlStream)
-                .filter(a -> a.operationType().equals(operationTYpe))
-                .map(SQL::value)
-                .findFirst().orElseGet(sqlGetter);
+    String getSqlByAnnotation(CrudOperation operationType) {
+        String sql = metadata.sql(operationType);
+        if (sql != null) {
+            return sql;
+        }
+        return switch (operationType) {
+            case SAVE -> getSaveSql();
+            case UPDATE -> getUpdateSql();
+            case FIND_BY_ID -> getFindByIdSql();
+            case FIND_ALL -> getFindAllSql();
+            case FIND_ALL_BY_ID -> getFindAllByIdSql();
+            case STREAM_ALL -> getStreamAllSql();
+            case FIND_PAGE_FORWARD -> getFindPageForwardSql();
+            case FIND_PAGE_BACKWARD -> getFindPageBackwardSql();
+            case DELETE_ONE -> getDeleteById();
+            case DELETE_MANY -> getDeleteInSql();
+            case DELETE_WHERE -> getDeleteWhereSql();
+            case FIND_WHERE -> getFindWhereSql();
+            case COUNT_WHERE -> getCountWhereSql();
+            case EXISTS_WHERE -> getExistsWhereSql();
+            case AGGREGATE_WHERE -> getAggregateWhereSql();
+            case COUNT -> getCountSql();
+        };
     }
 
     /**
      *
      * @return Should return a SQL string like
-     * "DELETE FROM PEOPLE WHERE ID IN (:ids)"
-     * be sure to include '(:ids)' named parameter & call it 'ids'
+     * "DELETE FROM PEOPLE WHERE ID = ANY(?)"
+     * whose one parameter binds a BIGINT array of ids
      */
     protected String getDeleteInSql(){throw new RuntimeException("SQL not defined;");}
 
+    /**
+     *
+     * @return Should return a SQL string like
+     * "DELETE FROM PEOPLE AS PARENT WHERE :criteria"
+     * be sure to include the ':criteria' placeholder, which is replaced by the criteria's SQL
+     */
+    protected String getDeleteWhereSql(){throw new RuntimeException("SQL not defined;");}
+
+    /**
+     *
+     * @return Should return a SQL string like
+     * "SELECT ... FROM PEOPLE AS PARENT WHERE :criteria ORDER BY PARENT.ID FETCH FIRST ? ROWS ONLY"
+     * selecting one row per entity, with the ':criteria' placeholder and the row limit as the last parameter
+     */
+    protected String getFindWhereSql(){throw new RuntimeException("SQL not defined;");}
+
+    /**
+     *
+     * @return Should return a SQL string like
+     * "SELECT COUNT(*) FROM PEOPLE AS PARENT WHERE :criteria"
+     */
+    protected String getCountWhereSql(){throw new RuntimeException("SQL not defined;");}
+
+    /**
+     *
+     * @return Should return a SQL string like
+     * "SELECT EXISTS(SELECT 1 FROM PEOPLE AS PARENT WHERE :criteria)"
+     */
+    protected String getExistsWhereSql(){throw new RuntimeException("SQL not defined;");}
+
+    /**
+     *
+     * @return Should return a SQL string like
+     * "SELECT :columns FROM PEOPLE AS PARENT :joins WHERE :criteria :grouping"
+     * whose placeholders are replaced by the aggregation's select list, joins, criteria and GROUP BY clause
+     */
+    protected String getAggregateWhereSql(){throw new RuntimeException("SQL not defined;");}
+
     protected String getDeleteById(){throw new RuntimeException("SQL not defined;");};
 
     protected String getFindAllSql(){throw new RuntimeException("SQL not defined;");};
 
+    /**
+     *
+     * @return Returns a String that represents the SQL needed to retrieve several entities, like
+     * "SELECT ... WHERE ID = ANY(?) ORDER BY ID". The one parameter binds a BIGINT array of ids;
+     * rows of one entity must be adjacent
+     */
+    protected String getFindAllByIdSql(){throw new RuntimeException("SQL not defined;");};
+
+    /**
+     *
+     * @return Returns a String that represents the SQL needed to stream all entities.
+     * Every entity must come back as exactly one row, since streaming reads a forward-only cursor
+     */
+    protected String getStreamAllSql(){throw new RuntimeException("SQL not defined;");};
+
+    /**
+     *
+     * @return Returns a String that represents the SQL needed to read one page in ascending id order, like
+     * "SELECT ... WHERE ID > ? ORDER BY ID FETCH FIRST ? ROWS ONLY".
+     * The first parameter binds the cursor id, the second the row limit; one row per entity
+     */
+    protected String getFindPageForwardSql(){throw new RuntimeException("SQL not defined;");};
+
+    /**
+     *
+     * @return Same as {@link #getFindPageForwardSql()} but with "ID < ?" and descending id order
+     */
+    protected String getFindPageBackwardSql(){throw new RuntimeException("SQL not defined;");};
+
     protected String getCountSql(){throw new RuntimeException("SQL not defined;");};
 
     /**
@@ -204,8 +1058,106 @@ abstract class CrudRepository<T> {
 
     protected void postSave(T entity) {
     }
+
+    /**
+     * @return the statement writing only the entity's changed columns, or {@code null} when the entity's
+     * changes are not tracked and {@link #mapForUpdate(Object, PreparedStatement)} should write every column
+     */
+    ColumnUpdate<T> columnUpdate(T entity) {
+        return null;
+    }
+
+    /**
+     * Called once the entity matches its row after a save or update, so change tracking can start over.
+     */
+    protected void markClean(T entity) {
+    }
+
+    /**
+     * Called after save, update or delete touched the row with this id, so subclasses can drop their own caches.
+     */
+    protected void postInvalidate(Long id) {
+    }
+
+    /**
+     * Copies an entity into or out of the entity cache, sharing no mutable state with it.
+     * Immutable entities can be returned as they are, which is the default.
+     */
+    T copyForCache(T entity) {
+        return entity;
+    }
+
+    /**
+     * Ids of other entities the cached copy was built from; updating or deleting any of them evicts it.
+     */
+    Collection<Long> relatedIds(T entity) {
+        return List.of();
+    }
+
     abstract T extractEntityFromResultSet (ResultSet rs) throws SQLException;
 
+    /**
+     * Maps the current row only, without moving the cursor.
+     * Repositories whose entities span several rows must override it.
+     */
+    T extractEntityFromRow(ResultSet rs) throws SQLException {
+        return extractEntityFromResultSet(rs);
+    }
+
+    /**
+     * Maps rows of one query shape. Compiled once per SQL text from the result set metadata,
+     * so a repository can resolve column positions up front and read every row by index.
+     */
+    interface RowMapper<T> {
+        /**
+         * Maps the entity starting at the current row. May consume the following rows that belong
+         * to the same entity, leaving the cursor on the entity's last row.
+         */
+        T mapEntity(ResultSet rs) throws SQLException;
+
+        /**
+         * Maps the current row only, without moving the cursor.
+         */
+        T mapRow(ResultSet rs) throws SQLException;
+    }
+
+    RowMapper<T> rowMapper(CrudOperation operation, ResultSet rs) throws SQLException {
+        return rowMapper(getSqlByAnnotation(operation), rs);
+    }
+
+    /**
+     * Compiles the mapper for a query once and caches it by SQL, up to {@link #MAX_ROW_MAPPERS} queries;
+     * queries past the bound, e.g. criteria queries of ever new shapes, compile a mapper per execution.
+     */
+    RowMapper<T> rowMapper(String sql, ResultSet rs) throws SQLException {
+        RowMapper<T> mapper = rowMappers.get(sql);
+        if (mapper == null) {
+            mapper = compileRowMapper(rs.getMetaData());
+            if (rowMappers.size() < MAX_ROW_MAPPERS) {
+                rowMappers.putIfAbsent(sql, mapper);
+            }
+        }
+        return mapper;
+    }
+
+    /**
+     * Builds a mapper for result sets described by {@code metadata}. The default one
+     * delegates to {@link #extractEntityFromResultSet(ResultSet)} and {@link #extractEntityFromRow(ResultSet)}.
+     */
+    RowMapper<T> compileRowMapper(ResultSetMetaData metadata) throws SQLException {
+        return new RowMapper<>() {
+            @Override
+            public T mapEntity(ResultSet rs) throws SQLException {
+                return extractEntityFromResultSet(rs);
+            }
+
+            @Override
+            public T mapRow(ResultSet rs) throws SQLException {
+                return extractEntityFromRow(rs);
+            }
+        };
+    }
+
     protected abstract void mapForSave(T entity, PreparedStatement ps) throws SQLException;
 
     protected abstract void mapForUpdate(T entity, PreparedStatement ps) throws SQLException;
@@ -0,0 +1,73 @@
+package com.kvitkadev.peopledb.repository;
+
+import com.kvitkadev.peopledb.annotation.Id;
+import com.kvitkadev.peopledb.exception.DataException;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+
+/**
+ * Accessors for the {@link Id} field of an entity class, resolved once per class.
+ * Handles are adapted to {@code (Object)Object} and {@code (Object,Object)void}
+ * so that callers can invoke them exactly without knowing the entity type.
+ */
+final class EntityMetadata {
+    private static final ClassValue<EntityMetadata> CACHE = new ClassValue<>() {
+        @Override
+        protected EntityMetadata computeValue(Class<?> type) {
+            return new EntityMetadata(type);
+        }
+    };
+
+    private final Class<?> entityType;
+    private final MethodHandle idGetter;
+    private final MethodHandle idSetter;
+
+    private EntityMetadata(Class<?> entityType) {
+        this.entityType = entityType;
+        Field idField = findIdField(entityType);
+        try {
+            idField.setAccessible(true);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            this.idGetter = lookup.unreflectGetter(idField)
+                    .asType(MethodType.methodType(Object.class, Object.class));
+            this.idSetter = lookup.unreflectSetter(idField)
+                    .asType(MethodType.methodType(void.class, Object.class, Object.class));
+        } catch (IllegalAccessException e) {
+            throw new DataException("Unable to access @Id field of " + entityType.getName(), e);
+        }
+    }
+
+    private static Field findIdField(Class<?> entityType) {
+        for (Class<?> type = entityType; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (field.isAnnotationPresent(Id.class)) {
+                    return field;
+                }
+            }
+        }
+        throw new DataException("No @Id annotated field found on " + entityType.getName());
+    }
+
+    static EntityMetadata of(Class<?> entityType) {
+        return CACHE.get(entityType);
+    }
+
+    Long getId(Object entity) {
+        try {
+            return (Long) (Object) idGetter.invokeExact(entity);
+        } catch (Throwable e) {
+            throw new DataException("Unable to read id of " + entityType.getName(), e);
+        }
+    }
+
+    void setId(Object entity, Long id) {
+        try {
+            idSetter.invokeExact(entity, (Object) id);
+        } catch (Throwable e) {
+            throw new DataException("Unable to set id value of " + entityType.getName(), e);
+        }
+    }
+}
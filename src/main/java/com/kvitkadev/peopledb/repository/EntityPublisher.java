@@ -0,0 +1,179 @@
+package com.kvitkadev.peopledb.repository;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.IntFunction;
+import java.util.stream.Stream;
+
+/**
+ * Publishes the rows of a repository cursor to {@link Flow.Subscriber}s.
+ * <p>
+ * Each subscription opens its own cursor and reads it on one task of the executor, so the cursor is never
+ * read by two threads at once and closing it never races with a read. The task reads at most
+ * {@code prefetch} rows ahead of the subscriber's demand and then waits for {@link Flow.Subscription#request(long)},
+ * so a slow subscriber holds {@code prefetch} entities in memory, not the table. Cancelling wakes the task,
+ * which closes the cursor.
+ */
+final class EntityPublisher<T> implements Flow.Publisher<T> {
+    private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+    private final IntFunction<Stream<T>> cursor;
+    private final int prefetch;
+    private final Executor executor;
+
+    /**
+     * @param cursor opens a stream over the rows, given the JDBC fetch size to use
+     */
+    EntityPublisher(IntFunction<Stream<T>> cursor, int prefetch, Executor executor) {
+        if (prefetch < 1) {
+            throw new IllegalArgumentException("Prefetch must be positive: " + prefetch);
+        }
+        this.cursor = cursor;
+        this.prefetch = prefetch;
+        this.executor = executor;
+    }
+
+    /**
+     * Runs every subscription on a new daemon thread.
+     */
+    static Executor threadPerSubscription() {
+        return task -> {
+            Thread thread = new Thread(task, "peopledb-publisher-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            thread.start();
+        };
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        Objects.requireNonNull(subscriber, "subscriber");
+        CursorSubscription subscription = new CursorSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        try {
+            executor.execute(subscription::drain);
+        } catch (RejectedExecutionException e) {
+            subscription.cancel();
+            subscriber.onError(e);
+        }
+    }
+
+    private final class CursorSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super T> subscriber;
+        private final Lock lock = new ReentrantLock();
+        private final Condition signalled = lock.newCondition();
+        private long demand;
+        private boolean cancelled;
+        private IllegalArgumentException invalidRequest;
+
+        CursorSubscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            lock.lock();
+            try {
+                if (n <= 0) {
+                    invalidRequest = new IllegalArgumentException("Requested " + n + " entities, must be positive");
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+                signalled.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @Override
+        public void cancel() {
+            lock.lock();
+            try {
+                cancelled = true;
+                signalled.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void drain() {
+            Deque<T> buffer = new ArrayDeque<>(prefetch);
+            try (Stream<T> rows = cursor.apply(prefetch)) {
+                Iterator<T> iterator = rows.iterator();
+                boolean exhausted = false;
+                while (true) {
+                    while (!exhausted && buffer.size() < prefetch) {
+                        if (isCancelled()) return;
+                        if (iterator.hasNext()) {
+                            buffer.add(iterator.next());
+                        } else {
+                            exhausted = true;
+                        }
+                    }
+                    if (buffer.isEmpty()) {
+                        if (!isCancelled()) {
+                            subscriber.onComplete();
+                        }
+                        return;
+                    }
+                    if (!awaitDemand()) return;
+                    subscriber.onNext(buffer.poll());
+                }
+            } catch (RuntimeException e) {
+                if (!isCancelled()) {
+                    cancel();
+                    subscriber.onError(e);
+                }
+            }
+        }
+
+        /**
+         * Waits until the subscriber requested another entity and takes it from the demand.
+         *
+         * @return false when the subscription ended instead
+         */
+        private boolean awaitDemand() {
+            IllegalArgumentException error;
+            lock.lock();
+            try {
+                while (demand == 0 && !cancelled && invalidRequest == null) {
+                    signalled.await();
+                }
+                if (cancelled) return false;
+                error = invalidRequest;
+                if (error == null) {
+                    if (demand != Long.MAX_VALUE) {
+                        demand--;
+                    }
+                    return true;
+                }
+                cancelled = true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+                return false;
+            } finally {
+                lock.unlock();
+            }
+            subscriber.onError(error);
+            return false;
+        }
+
+        private boolean isCancelled() {
+            lock.lock();
+            try {
+                return cancelled;
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package com.kvitkadev.peopledb.repository;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Wraps a statement to remember the values bound to it, for the slow query log. {@code setXxx(index, value, ...)}
+ * calls are recorded by index, arrays are copied right away because callers free them after executing.
+ * Every other call goes straight to the statement.
+ */
+final class ParameterCapture implements InvocationHandler {
+    private final PreparedStatement target;
+    private final List<Object> parameters = new ArrayList<>();
+
+    private ParameterCapture(PreparedStatement target) {
+        this.target = target;
+    }
+
+    static ParameterCapture of(PreparedStatement target) {
+        return new ParameterCapture(target);
+    }
+
+    PreparedStatement statement() {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                new Class<?>[]{PreparedStatement.class}, this);
+    }
+
+    List<Object> parameters() {
+        return Collections.unmodifiableList(parameters);
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer index) {
+            capture(index, name.equals("setNull") ? null : args[1]);
+        } else if (name.equals("clearParameters")) {
+            parameters.clear();
+        }
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private void capture(int index, Object value) throws SQLException {
+        while (parameters.size() < index) {
+            parameters.add(null);
+        }
+        parameters.set(index - 1, value instanceof Array array ? array.getArray() : value);
+    }
+}
@@ -1,22 +1,44 @@
 package com.kvitkadev.peopledb.repository;
 
 import com.kvitkadev.peopledb.annotation.SQL;
+import com.kvitkadev.peopledb.cache.EntityCache;
+import com.kvitkadev.peopledb.connection.ConnectionProvider;
+import com.kvitkadev.peopledb.connection.SingleConnectionProvider;
+import com.kvitkadev.peopledb.exception.DataException;
+import com.kvitkadev.peopledb.exception.UnableToSaveException;
+import com.kvitkadev.peopledb.metrics.RepositoryMetrics;
+import com.kvitkadev.peopledb.metrics.SlowQueryLog;
 import com.kvitkadev.peopledb.model.Address;
 import com.kvitkadev.peopledb.model.CrudOperation;
+import com.kvitkadev.peopledb.model.FetchPlan;
 import com.kvitkadev.peopledb.model.Person;
-import com.kvitkadev.peopledb.model.Region;
+import com.kvitkadev.peopledb.query.PersonGrouping;
+import com.kvitkadev.peopledb.query.SalaryAggregation;
+import com.kvitkadev.peopledb.query.SalaryStatistics;
 
-import java.math.BigDecimal;
 import java.sql.*;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
-import java.util.HashMap;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class PeopleRepository extends CrudRepository<Person> {
-    private AddressRepository addressRepository = null;
+    private final AddressRepository addressRepository;
     private static final String SAVE_PERSON_SQL = """
         INSERT INTO PEOPLE 
         (FIRST_NAME, LAST_NAME, DOB, SALARY, EMAIL, HOME_ADDRESS, BIZ_ADDRESS, SPOUSE_ID, PARENT_ID)
@@ -45,6 +67,30 @@ public class PeopleRepository extends CrudRepository<Person> {
             ON PARENT.SPOUSE_ID = SPOUSE.ID
             WHERE PARENT.ID=?
             """;
+    private static final String FIND_ALL_BY_ID_SQL = """
+            SELECT
+            PARENT.ID AS PARENT_ID, PARENT.FIRST_NAME AS PARENT_FIRST_NAME, PARENT.LAST_NAME AS PARENT_LAST_NAME,
+            PARENT.DOB AS PARENT_DOB, PARENT.SALARY AS PARENT_SALARY, PARENT.EMAIL AS PARENT_EMAIL,
+            CHILD.ID AS CHILD_ID, CHILD.FIRST_NAME AS CHILD_FIRST_NAME, CHILD.LAST_NAME AS CHILD_LAST_NAME,
+            CHILD.DOB AS CHILD_DOB, CHILD.SALARY AS CHILD_SALARY, CHILD.EMAIL AS CHILD_EMAIL,
+            SPOUSE.ID AS SPOUSE_ID, SPOUSE.FIRST_NAME AS SPOUSE_FIRST_NAME, SPOUSE.LAST_NAME AS SPOUSE_LAST_NAME,
+            SPOUSE.DOB AS SPOUSE_DOB, SPOUSE.SALARY AS SPOUSE_SALARY,
+            HOME.ID AS HOME_ID, HOME.STREET_ADDRESS AS HOME_STREET, HOME.ADDRESS2 AS HOME_ADDRESS2, HOME.CITY AS HOME_CITY,
+            HOME.STATE AS HOME_STATE, HOME.POSTCODE AS HOME_POSTCODE, HOME.COUNTY AS HOME_COUNTY, HOME.REGION AS HOME_REGION, HOME.COUNTRY AS HOME_COUNTRY,
+            BIZ.ID AS BIZ_ID, BIZ.STREET_ADDRESS AS BIZ_STREET, BIZ.ADDRESS2 AS BIZ_ADDRESS2, BIZ.CITY AS BIZ_CITY,
+            BIZ.STATE AS BIZ_STATE, BIZ.POSTCODE AS BIZ_POSTCODE, BIZ.COUNTY AS BIZ_COUNTY, BIZ.REGION AS BIZ_REGION, BIZ.COUNTRY AS BIZ_COUNTRY
+            FROM PEOPLE AS PARENT
+            LEFT OUTER JOIN PEOPLE AS CHILD
+            ON CHILD.PARENT_ID = PARENT.ID
+            LEFT OUTER JOIN ADDRESSES AS HOME
+            ON PARENT.HOME_ADDRESS = HOME.ID
+            LEFT OUTER JOIN ADDRESSES AS BIZ
+            ON PARENT.BIZ_ADDRESS = BIZ.ID
+            LEFT OUTER JOIN PEOPLE AS SPOUSE
+            ON PARENT.SPOUSE_ID = SPOUSE.ID
+            WHERE PARENT.ID = ANY(?)
+            ORDER BY PARENT.ID
+            """;
     private static final String FIND_ALL_SQL = """
     SELECT
             PARENT.ID AS PARENT_ID, PARENT.FIRST_NAME AS PARENT_FIRST_NAME, PARENT.LAST_NAME AS PARENT_LAST_NAME,
@@ -61,152 +107,347 @@ public class PeopleRepository extends CrudRepository<Person> {
             ORDER BY PARENT.ID DESC
             FETCH FIRST 100 ROWS ONLY
     """;
+    private static final String STREAM_ALL_SQL = """
+    SELECT
+            PARENT.ID AS PARENT_ID, PARENT.FIRST_NAME AS PARENT_FIRST_NAME, PARENT.LAST_NAME AS PARENT_LAST_NAME,
+            PARENT.DOB AS PARENT_DOB, PARENT.SALARY AS PARENT_SALARY, PARENT.EMAIL AS PARENT_EMAIL
+            FROM PEOPLE AS PARENT
+            ORDER BY PARENT.ID
+    """;
+    private static final String FIND_PAGE_FORWARD_SQL = """
+    SELECT
+            PARENT.ID AS PARENT_ID, PARENT.FIRST_NAME AS PARENT_FIRST_NAME, PARENT.LAST_NAME AS PARENT_LAST_NAME,
+            PARENT.DOB AS PARENT_DOB, PARENT.SALARY AS PARENT_SALARY, PARENT.EMAIL AS PARENT_EMAIL
+            FROM PEOPLE AS PARENT
+            WHERE PARENT.ID > ?
+            ORDER BY PARENT.ID
+            FETCH FIRST ? ROWS ONLY
+    """;
+    private static final String FIND_PAGE_BACKWARD_SQL = """
+    SELECT
+            PARENT.ID AS PARENT_ID, PARENT.FIRST_NAME AS PARENT_FIRST_NAME, PARENT.LAST_NAME AS PARENT_LAST_NAME,
+            PARENT.DOB AS PARENT_DOB, PARENT.SALARY AS PARENT_SALARY, PARENT.EMAIL AS PARENT_EMAIL
+            FROM PEOPLE AS PARENT
+            WHERE PARENT.ID < ?
+            ORDER BY PARENT.ID DESC
+            FETCH FIRST ? ROWS ONLY
+    """;
+    private static final String FIND_PERSON_ROW_SQL = """
+    SELECT
+            PARENT.ID AS PARENT_ID, PARENT.FIRST_NAME AS PARENT_FIRST_NAME, PARENT.LAST_NAME AS PARENT_LAST_NAME,
+            PARENT.DOB AS PARENT_DOB, PARENT.SALARY AS PARENT_SALARY, PARENT.EMAIL AS PARENT_EMAIL,
+            PARENT.HOME_ADDRESS AS PARENT_HOME_ADDRESS, PARENT.BIZ_ADDRESS AS PARENT_BIZ_ADDRESS,
+            PARENT.SPOUSE_ID AS PARENT_SPOUSE_ID
+            FROM PEOPLE AS PARENT
+            WHERE PARENT.ID=?
+    """;
+    private static final String FIND_IDS_BY_ADDRESS_SQL = "SELECT ID FROM PEOPLE WHERE HOME_ADDRESS=? OR BIZ_ADDRESS=?";
+    private static final String FIND_LINKS_SQL = "SELECT HOME_ADDRESS, BIZ_ADDRESS, SPOUSE_ID FROM PEOPLE WHERE ID=?";
+    private static final String FIND_WHERE_SQL = """
+    SELECT
+            PARENT.ID AS PARENT_ID, PARENT.FIRST_NAME AS PARENT_FIRST_NAME, PARENT.LAST_NAME AS PARENT_LAST_NAME,
+            PARENT.DOB AS PARENT_DOB, PARENT.SALARY AS PARENT_SALARY, PARENT.EMAIL AS PARENT_EMAIL,
+            PARENT.HOME_ADDRESS AS PARENT_HOME_ADDRESS, PARENT.BIZ_ADDRESS AS PARENT_BIZ_ADDRESS,
+            PARENT.SPOUSE_ID AS PARENT_SPOUSE_ID
+            FROM PEOPLE AS PARENT
+            WHERE :criteria
+            ORDER BY PARENT.ID
+            FETCH FIRST ? ROWS ONLY
+    """;
+    private static final String COUNT_WHERE_SQL = "SELECT COUNT(*) FROM PEOPLE AS PARENT WHERE :criteria";
+    private static final String EXISTS_WHERE_SQL = "SELECT EXISTS(SELECT 1 FROM PEOPLE AS PARENT WHERE :criteria)";
+    private static final String FIND_CHILDREN_ROWS_SQL = """
+    SELECT
+            PARENT.ID AS PARENT_ID, PARENT.FIRST_NAME AS PARENT_FIRST_NAME, PARENT.LAST_NAME AS PARENT_LAST_NAME,
+            PARENT.DOB AS PARENT_DOB, PARENT.SALARY AS PARENT_SALARY, PARENT.EMAIL AS PARENT_EMAIL,
+            PARENT.HOME_ADDRESS AS PARENT_HOME_ADDRESS, PARENT.BIZ_ADDRESS AS PARENT_BIZ_ADDRESS,
+            PARENT.SPOUSE_ID AS PARENT_SPOUSE_ID
+            FROM PEOPLE AS PARENT
+            WHERE PARENT.PARENT_ID=?
+            ORDER BY PARENT.ID
+    """;
     private static final String COUNT_SQL = "SELECT COUNT(*) FROM PEOPLE";
+    private static final String AGGREGATE_WHERE_SQL = """
+    SELECT :columns
+            FROM PEOPLE AS PARENT:joins
+            WHERE :criteria
+            :grouping
+    """;
     private static final String DELETE_BY_ID_SQL = "DELETE FROM PEOPLE WHERE ID=?";
-    private static final String DELETE_IN_SQL = "DELETE FROM PEOPLE WHERE ID IN (:ids)";
+    private static final String DELETE_IN_SQL = "DELETE FROM PEOPLE WHERE ID = ANY(?)";
+    private static final String DELETE_WHERE_SQL = "DELETE FROM PEOPLE AS PARENT WHERE :criteria";
     private static final String UPDATE_SQL = "UPDATE PEOPLE SET FIRST_NAME=?, LAST_NAME=?, DOB=?, SALARY=?, SPOUSE_ID=? WHERE ID=?";
 
-    private static Map<String, Integer> aliasColIdxMap = new HashMap<>();
+    private final Map<Set<Person.Property>, String> columnUpdateSql = new ConcurrentHashMap<>();
+    private final PersonRowMapper.Associations associations = new LazyAssociations();
 
     public PeopleRepository(Connection connection) {
-        super(connection);
-        addressRepository = new AddressRepository(connection);
+        this(new SingleConnectionProvider(connection));
     }
 
-    @Override
-    @SQL(value = SAVE_PERSON_SQL, operationType = CrudOperation.SAVE)
-    protected void mapForSave(Person entity, PreparedStatement ps) throws SQLException {
-        ps.setString(1, entity.getFirstName());
-        ps.setString(2, entity.getLastName());
-        ps.setTimestamp(3, convertDobToTimestamp(entity.getDob()));
-        ps.setBigDecimal(4, entity.getSalary());
-        ps.setString(5, entity.getEmail());
-        associateAddressWithPerson(entity.getHomeAddress(), ps, 6);
-        associateAddressWithPerson(entity.getBusinessAddress(), ps, 7);
-        associateSpouseWithPerson(entity.getSpouse(), ps, 8);
-        associateChildWithParent(entity, ps, 9);
+    public PeopleRepository(ConnectionProvider connections) {
+        super(connections);
+        addressRepository = new AddressRepository(connections);
+        addressRepository.addInvalidationListener(this::evictPeopleAt);
     }
 
-    private void associateChildWithParent(Person entity, PreparedStatement ps, int i) throws SQLException {
-        Optional<Person> parent = entity.getParent();
-        if (parent.isPresent()) {
-            ps.setLong(i, parent.get().getId());
-        } else {
-            ps.setObject(i, null);
+    /**
+     * Cached people embed their addresses, so a changed or deleted address evicts the people who live or
+     * work there. Costs one indexed query per address, and only while the entity cache is enabled; if that
+     * query fails the whole cache is dropped rather than failing the address write, which already happened.
+     */
+    private void evictPeopleAt(long addressId) {
+        Optional<EntityCache<Person>> cache = getEntityCache();
+        if (cache.isEmpty()) return;
+        try {
+            withStatement(CrudOperation.FIND_BY_ID, FIND_IDS_BY_ADDRESS_SQL, ps -> {
+                ps.setLong(1, addressId);
+                ps.setLong(2, addressId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        cache.get().invalidate(rs.getLong(1));
+                    }
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            cache.get().invalidateAll();
         }
     }
 
-    private void associateSpouseWithPerson(Optional<Person> spouse, PreparedStatement ps, int index) throws SQLException {
-        if (spouse.isPresent()) {
-            Person pSpouse = spouse.get();
-            if (pSpouse.getId() == null) {
-                Person savedSpouse = this.save(pSpouse);
-                ps.setLong(index, savedSpouse.getId());
-            }
-            ps.setLong(index, pSpouse.getId());
-        } else {
-            ps.setObject(index, null);
+    /**
+     * Loads the person's own columns with a single-row query, then loads each association in the plan
+     * with its own query. Associations outside the plan get loaders that run on first access, so they
+     * cost nothing unless used and never multiply the rows of the person query.
+     * <p>
+     * Like {@link #findById(Long)}, a person the current {@link Session} holds is returned as is, and with an
+     * entity cache the person comes from the cache, fully loaded.
+     */
+    public Optional<Person> findById(Long id, FetchPlan plan) {
+        Optional<Person> found = findPerson(id);
+        found.ifPresent(person -> {
+            if (plan.includes(FetchPlan.Association.SPOUSE)) person.getSpouse();
+            if (plan.includes(FetchPlan.Association.CHILDREN)) person.getChildren();
+            if (plan.includes(FetchPlan.Association.HOME_ADDRESS)) person.getHomeAddress();
+            if (plan.includes(FetchPlan.Association.BUSINESS_ADDRESS)) person.getBusinessAddress();
+        });
+        return found;
+    }
+
+    private Optional<Person> findPerson(Long id) {
+        Session session = Session.current();
+        Person known = session == null ? null : session.find(Person.class, id);
+        if (known != null) {
+            return Optional.of(known);
+        }
+        if (getEntityCache().isPresent()) {
+            return findById(id);
+        }
+        try {
+            return withStatement(CrudOperation.FIND_BY_ID, FIND_PERSON_ROW_SQL, ps -> {
+                ps.setLong(1, id);
+                try (ResultSet rs = ps.executeQuery()) {
+                    return rs.next() ? Optional.of(rowMapper(FIND_PERSON_ROW_SQL, rs).mapRow(rs)) : Optional.<Person>empty();
+                }
+            });
+        } catch (SQLException e) {
+            throw new DataException("Unable to find person " + id, e);
         }
     }
 
-    @Override
-    protected void postSave(Person entity) {
-        Optional<Person> spouse = entity.getSpouse();
-        if (spouse.isPresent()) {
-            spouse.get().setSpouse(entity);
-            update(spouse.get());
+    private List<Person> findChildren(long parentId) {
+        try {
+            return withStatement(CrudOperation.FIND_BY_ID, FIND_CHILDREN_ROWS_SQL, ps -> {
+                ps.setLong(1, parentId);
+                List<Person> children = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    RowMapper<Person> mapper = rowMapper(FIND_CHILDREN_ROWS_SQL, rs);
+                    while (rs.next()) {
+                        children.add(mapper.mapRow(rs));
+                    }
+                }
+                return children;
+            });
+        } catch (SQLException e) {
+            throw new DataException("Unable to find children of person " + parentId, e);
         }
-        entity.getChildren().forEach(this::save);
     }
 
-    private void associateAddressWithPerson(Optional<Address> address, PreparedStatement ps, int index) throws SQLException {
-        if (address.isPresent()) {
-            Address savedAddress = addressRepository.save(address.get());
-            ps.setLong(index, savedAddress.id());
-        } else {
-            ps.setObject(index, null);
+    private Links findLinks(long personId) {
+        try {
+            return withStatement(CrudOperation.FIND_BY_ID, FIND_LINKS_SQL, ps -> {
+                ps.setLong(1, personId);
+                try (ResultSet rs = ps.executeQuery()) {
+                    if (!rs.next()) return new Links(null, null, null);
+                    return new Links(rs.getObject(1, Long.class), rs.getObject(2, Long.class), rs.getObject(3, Long.class));
+                }
+            });
+        } catch (SQLException e) {
+            throw new DataException("Unable to find associations of person " + personId, e);
         }
     }
 
+    private Optional<Address> findAddress(Long addressId) {
+        return addressId == null ? Optional.empty() : addressRepository.findById(addressId);
+    }
+
+    /**
+     * Rows of criteria queries carry the association ids, so their people load associations lazily.
+     */
     @Override
-    @SQL(value = FIND_BY_ID_SQL, operationType = CrudOperation.FIND_BY_ID)
-    @SQL(value = FIND_ALL_SQL, operationType = CrudOperation.FIND_ALL)
-    @SQL(value = COUNT_SQL, operationType = CrudOperation.COUNT)
-    @SQL(value = DELETE_IN_SQL, operationType = CrudOperation.DELETE_MANY)
-    @SQL(value = DELETE_BY_ID_SQL, operationType = CrudOperation.DELETE_ONE)
-    Person extractEntityFromResultSet(ResultSet rs) throws SQLException {
-        Person finalParent = null;
-        do {
-            Person currentParent = extractPerson(rs, "PARENT");
-
-            if (finalParent == null) {
-                finalParent = currentParent;
-            } else if (!finalParent.equals(currentParent)) {
-                rs.previous();
-                break;
-            }
+    Person mapQueryRow(ResultSet rs, String sql) throws SQLException {
+        return rowMapper(sql, rs).mapRow(rs);
+    }
 
-            Person spouse = extractPerson(rs, "SPOUSE");
-            finalParent.setSpouse(spouse);
+    private record Links(Long homeAddressId, Long businessAddressId, Long spouseId) {
+    }
 
-            Person child = extractPerson(rs, "CHILD");
-            finalParent.addChild(child);
+    /**
+     * Loads a person's associations through {@link #findById(Long, FetchPlan)}, the address repository and
+     * {@link #findChildren(long)}, so inside a session they resolve to the instances the session holds.
+     * People read without their association ids look the ids up once, when the first association is read.
+     */
+    private final class LazyAssociations implements PersonRowMapper.Associations {
+        @Override
+        public void attach(Person person, Long homeAddressId, Long businessAddressId, Long spouseId) {
+            Links links = new Links(homeAddressId, businessAddressId, spouseId);
+            attach(person, () -> links);
+            person.setSpouseLoader(spouseId, spouseLoader(() -> links));
+        }
 
-            Address homeAddress = extractAddress(rs, "HOME");
-            Address bizAddress = extractAddress(rs, "BIZ");
+        @Override
+        public void attach(Person person) {
+            long personId = person.getId();
+            Links[] links = new Links[1];
+            Supplier<Links> lookup = () -> links[0] == null ? links[0] = findLinks(personId) : links[0];
+            attach(person, lookup);
+            person.setSpouseLoader(spouseLoader(lookup));
+        }
 
-            finalParent.setHomeAddress(homeAddress);
-            finalParent.setBusinessAddress(bizAddress);
+        private void attach(Person person, Supplier<Links> links) {
+            long personId = person.getId();
+            person.setHomeAddressLoader(() -> findAddress(links.get().homeAddressId()));
+            person.setBusinessAddressLoader(() -> findAddress(links.get().businessAddressId()));
+            person.setChildrenLoader(() -> findChildren(personId));
+        }
 
-        } while (rs.next());
-        return finalParent;
+        private Supplier<Optional<Person>> spouseLoader(Supplier<Links> links) {
+            return () -> {
+                Long spouseId = links.get().spouseId();
+                return spouseId == null ? Optional.empty() : findById(spouseId, FetchPlan.none());
+            };
+        }
     }
 
-    private static Person extractPerson(ResultSet rs, String personAlias) throws SQLException {
-        Long personId = getValueByAlias(personAlias.concat("_ID"), rs);
-        if (personId == null) return null;
-        String firstName = rs.getString(personAlias.concat("_FIRST_NAME"));
-        String lastName = rs.getString(personAlias.concat("_LAST_NAME"));
-        ZonedDateTime dob = ZonedDateTime.of(rs.getTimestamp(personAlias.concat("_DOB")).toLocalDateTime(), ZoneId.of("+0"));
-        BigDecimal salary = rs.getBigDecimal(personAlias.concat("_SALARY"));
+    /**
+     * Saves the person with its new spouse, children and addresses in a few batched round trips:
+     * addresses first, then one batch per generation of people, then one batch that fills in the
+     * spouse and parent links the inserts could not bind.
+     */
+    @Override
+    public Person save(Person entity) throws UnableToSaveException {
+        return new PersonGraphFlush(this, addressRepository).flush(entity);
+    }
 
-        Person person = new Person(personId, firstName, lastName, dob, salary);
-        return person;
+    /**
+     * Saves the people like {@link #save(Person)}, {@link #setBatchSize(int) batchSize} people at a time:
+     * each chunk and the new people and addresses reachable from it are flushed as one graph, so a chunk
+     * costs one batch per generation however many spouses and children it brings along. People already saved
+     * with an earlier chunk, e.g. as a spouse, are not inserted again when the stream reaches them.
+     *
+     * @return the number of people taken from the stream, not counting the spouses and children saved with them
+     */
+    @Override
+    public long saveAll(Stream<Person> entities) throws UnableToSaveException {
+        int batchSize = getBatchSize();
+        List<Person> chunk = new ArrayList<>(batchSize);
+        Set<Person> savedAhead = Collections.newSetFromMap(new IdentityHashMap<>());
+        long savedCount = 0L;
+        Iterator<Person> iterator = entities.iterator();
+        while (iterator.hasNext()) {
+            Person person = iterator.next();
+            savedCount++;
+            if (!savedAhead.remove(person)) {
+                chunk.add(person);
+            }
+            if (chunk.size() == batchSize || !iterator.hasNext() && !chunk.isEmpty()) {
+                Set<Person> saved = new PersonGraphFlush(this, addressRepository).flush(chunk);
+                chunk.forEach(saved::remove);
+                savedAhead.addAll(saved);
+                chunk.clear();
+            }
+        }
+        return savedCount;
+    }
+
+    /**
+     * Also reports the metrics of the address repository this repository saves and loads addresses through.
+     */
+    @Override
+    public void setMetrics(RepositoryMetrics metrics) {
+        super.setMetrics(metrics);
+        addressRepository.setMetrics(metrics);
     }
 
-    private static Address extractAddress(ResultSet rs, String addressAlias) throws SQLException {
-        Long addressId = getValueByAlias(addressAlias.concat("_ID"), rs);
-        if (addressId == null) return null;
-        String streetAddress = rs.getString(addressAlias.concat("_STREET"));
-        String address2 = rs.getString(addressAlias.concat("_ADDRESS2"));
-        String city = rs.getString(addressAlias.concat("_CITY"));
-        String state = rs.getString(addressAlias.concat("_STATE"));
-        String postcode = rs.getString(addressAlias.concat("_POSTCODE"));
-        String county = rs.getString(addressAlias.concat("_COUNTY"));
-        Region region = Region.valueOf(rs.getString(addressAlias.concat("_REGION")).toUpperCase());
-        String country = rs.getString(addressAlias.concat("_COUNTRY"));
-        Address address = new Address(addressId, streetAddress, address2, city, state, postcode, country, county, region);
-        return address;
+    /**
+     * Also logs the slow statements of the address repository.
+     */
+    @Override
+    public void setSlowQueryLog(SlowQueryLog slowQueryLog) {
+        super.setSlowQueryLog(slowQueryLog);
+        addressRepository.setSlowQueryLog(slowQueryLog);
     }
 
-    private static <T> T getValueByAlias(String alias, ResultSet rs) throws SQLException {
-        int columnCount = rs.getMetaData().getColumnCount();
-        int foundIdx = getIndexForAlias(alias, rs, columnCount);
-        return foundIdx == 0 ? null : (T) rs.getObject(foundIdx);
+    public AddressRepository getAddressRepository() {
+        return addressRepository;
     }
 
-    private static int getIndexForAlias(String alias, ResultSet rs, int columnCount) throws SQLException {
-        Integer foundIdx = aliasColIdxMap.getOrDefault(alias, 0);
-        if (foundIdx == 0) {
-            for (int i = 1; i <= columnCount; i++) {
-                if (Objects.equals(rs.getMetaData().getColumnLabel(i), alias)) {
-                    foundIdx = i;
-                    aliasColIdxMap.put(alias, foundIdx);
-                    break;
-                }
-            }
-        }
-        return foundIdx;
+    /**
+     * Binds the person's columns, with its addresses, spouse and parent by id, or NULL while they have none.
+     * {@link PersonGraphFlush} saves new addresses and people before the rows that refer to them, and links
+     * the rest once they have ids.
+     */
+    @Override
+    @SQL(value = SAVE_PERSON_SQL, operationType = CrudOperation.SAVE)
+    protected void mapForSave(Person entity, PreparedStatement ps) throws SQLException {
+        ps.setString(1, entity.getFirstName());
+        ps.setString(2, entity.getLastName());
+        ps.setTimestamp(3, convertDobToTimestamp(entity.getDob()));
+        ps.setBigDecimal(4, entity.getSalary());
+        ps.setString(5, entity.getEmail());
+        PersonGraphFlush.setId(ps, 6, entity.getHomeAddress().map(Address::id).orElse(null));
+        PersonGraphFlush.setId(ps, 7, entity.getBusinessAddress().map(Address::id).orElse(null));
+        PersonGraphFlush.setId(ps, 8, entity.getSpouse().map(Person::getId).orElse(null));
+        PersonGraphFlush.setId(ps, 9, entity.getParent().map(Person::getId).orElse(null));
+    }
+
+    @Override
+    @SQL(value = FIND_BY_ID_SQL, operationType = CrudOperation.FIND_BY_ID)
+    @SQL(value = FIND_ALL_SQL, operationType = CrudOperation.FIND_ALL)
+    @SQL(value = FIND_ALL_BY_ID_SQL, operationType = CrudOperation.FIND_ALL_BY_ID)
+    @SQL(value = STREAM_ALL_SQL, operationType = CrudOperation.STREAM_ALL)
+    @SQL(value = FIND_PAGE_FORWARD_SQL, operationType = CrudOperation.FIND_PAGE_FORWARD)
+    @SQL(value = FIND_PAGE_BACKWARD_SQL, operationType = CrudOperation.FIND_PAGE_BACKWARD)
+    @SQL(value = COUNT_SQL, operationType = CrudOperation.COUNT)
+    @SQL(value = AGGREGATE_WHERE_SQL, operationType = CrudOperation.AGGREGATE_WHERE)
+    @SQL(value = DELETE_IN_SQL, operationType = CrudOperation.DELETE_MANY)
+    @SQL(value = DELETE_WHERE_SQL, operationType = CrudOperation.DELETE_WHERE)
+    @SQL(value = FIND_WHERE_SQL, operationType = CrudOperation.FIND_WHERE)
+    @SQL(value = COUNT_WHERE_SQL, operationType = CrudOperation.COUNT_WHERE)
+    @SQL(value = EXISTS_WHERE_SQL, operationType = CrudOperation.EXISTS_WHERE)
+    @SQL(value = DELETE_BY_ID_SQL, operationType = CrudOperation.DELETE_ONE)
+    Person extractEntityFromResultSet(ResultSet rs) throws SQLException {
+        return PersonRowMapper.compile(rs.getMetaData(), associations).mapEntity(rs);
+    }
+
+    @Override
+    Person extractEntityFromRow(ResultSet rs) throws SQLException {
+        return PersonRowMapper.compile(rs.getMetaData(), associations).mapRow(rs);
+    }
+
+    @Override
+    RowMapper<Person> compileRowMapper(ResultSetMetaData metadata) throws SQLException {
+        return PersonRowMapper.compile(metadata, associations);
     }
 
     @Override
@@ -225,7 +466,175 @@ public class PeopleRepository extends CrudRepository<Person> {
         }
     }
 
-    private static Timestamp convertDobToTimestamp(ZonedDateTime dob) {
+    /**
+     * Computes salary statistics per group with one GROUP BY query, so only the summary rows leave the database.
+     * Groups come back ordered by their values, {@code null} groups first.
+     */
+    public List<SalaryStatistics> aggregateSalaries(SalaryAggregation aggregation) {
+        String sql = buildAggregationSql(aggregation);
+        try {
+            return withStatement(CrudOperation.AGGREGATE_WHERE, sql, ps -> {
+                bindCriteria(aggregation.criteria(), ps, 1);
+                List<SalaryStatistics> statistics = new ArrayList<>();
+                try (ResultSet rs = ps.executeQuery()) {
+                    while (rs.next()) {
+                        statistics.add(readStatistics(aggregation, rs));
+                    }
+                }
+                recordRows(CrudOperation.AGGREGATE_WHERE, statistics.size());
+                return statistics;
+            });
+        } catch (SQLException e) {
+            throw new DataException("Unable to aggregate salaries: " + aggregation, e);
+        }
+    }
+
+    private String buildAggregationSql(SalaryAggregation aggregation) {
+        List<PersonGrouping> groupings = aggregation.groupings();
+        List<String> columns = new ArrayList<>();
+        List<String> groupBy = new ArrayList<>();
+        List<String> orderBy = new ArrayList<>();
+        StringBuilder joins = new StringBuilder();
+        for (int i = 0; i < groupings.size(); i++) {
+            PersonGrouping grouping = groupings.get(i);
+            columns.add(grouping.expression() + " AS GROUP_" + (i + 1));
+            groupBy.add(grouping.expression());
+            orderBy.add("GROUP_" + (i + 1) + " NULLS FIRST");
+            if (grouping.join() != null) {
+                joins.append(' ').append(grouping.join());
+            }
+        }
+        columns.add("COUNT(*) AS HEADCOUNT");
+        columns.add("COUNT(PARENT.SALARY) AS SALARIED");
+        columns.add("SUM(PARENT.SALARY) AS SALARY_SUM");
+        columns.add("AVG(PARENT.SALARY) AS SALARY_AVG");
+        columns.add("MIN(PARENT.SALARY) AS SALARY_MIN");
+        columns.add("MAX(PARENT.SALARY) AS SALARY_MAX");
+        List<BigDecimal> percentiles = aggregation.percentiles();
+        for (int i = 0; i < percentiles.size(); i++) {
+            columns.add("PERCENTILE_CONT(" + percentiles.get(i).toPlainString()
+                    + ") WITHIN GROUP (ORDER BY PARENT.SALARY) AS SALARY_P" + (i + 1));
+        }
+        String grouping = groupings.isEmpty() ? ""
+                : "GROUP BY " + String.join(", ", groupBy) + " ORDER BY " + String.join(", ", orderBy);
+        return getSqlByAnnotation(CrudOperation.AGGREGATE_WHERE)
+                .replace(":columns", String.join(", ", columns))
+                .replace(":joins", joins)
+                .replace(":criteria", aggregation.criteria().sql())
+                .replace(":grouping", grouping);
+    }
+
+    private static SalaryStatistics readStatistics(SalaryAggregation aggregation, ResultSet rs) throws SQLException {
+        List<PersonGrouping> groupings = aggregation.groupings();
+        Map<PersonGrouping, Object> groups = new EnumMap<>(PersonGrouping.class);
+        for (int i = 0; i < groupings.size(); i++) {
+            groups.put(groupings.get(i), groupings.get(i).read(rs, i + 1));
+        }
+        int index = groupings.size() + 1;
+        long headcount = rs.getLong(index++);
+        long salaried = rs.getLong(index++);
+        BigDecimal sum = rs.getBigDecimal(index++);
+        BigDecimal average = rs.getBigDecimal(index++);
+        BigDecimal min = rs.getBigDecimal(index++);
+        BigDecimal max = rs.getBigDecimal(index++);
+        Map<BigDecimal, BigDecimal> percentiles = new LinkedHashMap<>();
+        for (BigDecimal percentile : aggregation.percentiles()) {
+            percentiles.put(percentile, rs.getBigDecimal(index++));
+        }
+        return new SalaryStatistics(Collections.unmodifiableMap(groups), headcount, salaried, sum, average, min, max,
+                Collections.unmodifiableMap(percentiles));
+    }
+
+    @Override
+    ColumnUpdate<Person> columnUpdate(Person entity) {
+        Optional<Set<Person.Property>> tracked = entity.getChangedProperties();
+        if (tracked.isEmpty()) return null;
+        Set<Person.Property> changed = EnumSet.noneOf(Person.Property.class);
+        changed.addAll(tracked.get());
+        String sql = columnUpdateSql.computeIfAbsent(changed, PeopleRepository::buildColumnUpdateSql);
+        return new ColumnUpdate<>(sql, changed.size(), (person, ps) -> {
+            int index = 1;
+            for (Person.Property property : changed) {
+                bindProperty(person, property, ps, index++);
+            }
+        });
+    }
+
+    private static String buildColumnUpdateSql(Set<Person.Property> changed) {
+        return changed.stream()
+                .map(property -> switch (property) {
+                    case FIRST_NAME -> "FIRST_NAME=?";
+                    case LAST_NAME -> "LAST_NAME=?";
+                    case DOB -> "DOB=?";
+                    case SALARY -> "SALARY=?";
+                    case EMAIL -> "EMAIL=?";
+                    case SPOUSE -> "SPOUSE_ID=?";
+                })
+                .collect(Collectors.joining(", ", "UPDATE PEOPLE SET ", " WHERE ID=?"));
+    }
+
+    private static void bindProperty(Person person, Person.Property property, PreparedStatement ps, int index)
+            throws SQLException {
+        switch (property) {
+            case FIRST_NAME -> ps.setString(index, person.getFirstName());
+            case LAST_NAME -> ps.setString(index, person.getLastName());
+            case DOB -> ps.setTimestamp(index, convertDobToTimestamp(person.getDob()));
+            case SALARY -> ps.setBigDecimal(index, person.getSalary());
+            case EMAIL -> ps.setString(index, person.getEmail());
+            case SPOUSE -> {
+                Optional<Person> spouse = person.getSpouse();
+                if (spouse.isPresent()) {
+                    ps.setLong(index, spouse.get().getId());
+                } else {
+                    ps.setObject(index, null);
+                }
+            }
+        }
+    }
+
+    @Override
+    protected void markClean(Person entity) {
+        entity.trackChanges();
+    }
+
+    /**
+     * Copies what FIND_BY_ID maps: the person's columns and addresses, and its spouse and children with their
+     * columns only. Every person in the copy tracks changes from a clean state.
+     */
+    @Override
+    Person copyForCache(Person person) {
+        Person copy = copyColumns(person);
+        copy.setHomeAddress(person.getHomeAddress().orElse(null));
+        copy.setBusinessAddress(person.getBusinessAddress().orElse(null));
+        person.getSpouse().map(this::copyAssociated).ifPresent(copy::setSpouse);
+        person.getChildren().stream().map(this::copyAssociated).forEach(copy::addChild);
+        copy.trackChanges();
+        return copy;
+    }
+
+    private Person copyAssociated(Person person) {
+        Person copy = copyColumns(person);
+        associations.attach(copy);
+        return copy;
+    }
+
+    private static Person copyColumns(Person person) {
+        Person copy = new Person(person.getId(), person.getFirstName(), person.getLastName(), person.getDob(),
+                person.getSalary());
+        copy.setEmail(person.getEmail());
+        copy.trackChanges();
+        return copy;
+    }
+
+    @Override
+    Collection<Long> relatedIds(Person cached) {
+        List<Long> related = new ArrayList<>();
+        cached.getSpouse().map(Person::getId).ifPresent(related::add);
+        cached.getChildren().forEach(child -> related.add(child.getId()));
+        return related;
+    }
+
+    static Timestamp convertDobToTimestamp(ZonedDateTime dob) {
         return Timestamp.valueOf(dob.withZoneSameInstant(ZoneId.of("+0")).toLocalDateTime());
     }
 }
@@ -0,0 +1,231 @@
+package com.kvitkadev.peopledb.repository;
+
+import com.kvitkadev.peopledb.connection.ConnectionLease;
+import com.kvitkadev.peopledb.exception.UnableToSaveException;
+import com.kvitkadev.peopledb.model.Address;
+import com.kvitkadev.peopledb.model.CrudOperation;
+import com.kvitkadev.peopledb.model.Person;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Saves people together with every new (id-less) person and address reachable from them, in dependency order:
+ * <ol>
+ *     <li>new addresses, as one batch,</li>
+ *     <li>new people, one batch per generation, so parents get their ids before their children are bound,</li>
+ *     <li>one batch of updates for the links that could not be bound on insert: spouses saved in the same
+ *     generation or later, spouses that already existed, and existing children adopted by a new parent.</li>
+ * </ol>
+ * People that already have an id are linked to but never inserted again, and their associations are not walked,
+ * so lazy associations are not loaded. All statements run on one leased connection.
+ */
+final class PersonGraphFlush {
+    private static final String LINK_PEOPLE_SQL = """
+            UPDATE PEOPLE SET SPOUSE_ID = COALESCE(?, SPOUSE_ID), PARENT_ID = COALESCE(?, PARENT_ID) WHERE ID = ?
+            """;
+
+    private record Links(Person spouse, Person parent) {
+    }
+
+    private final PeopleRepository people;
+    private final AddressRepository addresses;
+    private final Set<Person> newPeople = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Set<Person> insertedPeople = Collections.newSetFromMap(new IdentityHashMap<>());
+    private final Map<Person, Integer> generations = new IdentityHashMap<>();
+    private final Map<Person, Links> pendingLinks = new IdentityHashMap<>();
+
+    PersonGraphFlush(PeopleRepository people, AddressRepository addresses) {
+        this.people = people;
+        this.addresses = addresses;
+    }
+
+    Person flush(Person root) {
+        flush(List.of(root));
+        return root;
+    }
+
+    /**
+     * Saves the roots and the new people reachable from any of them as one graph, so people shared
+     * between roots are inserted once and each generation is a single batch for all roots.
+     *
+     * @return every person inserted, roots included
+     */
+    Set<Person> flush(Collection<Person> roots) {
+        for (Person root : roots) {
+            collect(root);
+        }
+        // Held across the statements below so they all run on one connection.
+        ConnectionLease lease = people.connections.acquire();
+        try {
+            saveAddresses();
+            for (List<Person> generation : byGeneration()) {
+                insert(generation);
+            }
+            linkPeople();
+        } catch (SQLException e) {
+            throw new UnableToSaveException("Tried to save " + roots.size() + " people: " + roots, e);
+        } finally {
+            lease.close();
+        }
+        Session session = Session.current();
+        for (Person person : newPeople) {
+            people.markClean(person);
+            if (session != null) {
+                people.attach(session, person);
+            }
+        }
+        pendingLinks.keySet().stream().filter(person -> !newPeople.contains(person)).forEach(people::invalidate);
+        newPeople.stream()
+                .flatMap(person -> person.getParent().stream())
+                .filter(parent -> !newPeople.contains(parent))
+                .forEach(people::invalidate);
+        return newPeople;
+    }
+
+    /**
+     * Finds the new people reachable from {@code root}, which is always saved, and makes spouse links
+     * two-way, as a one-by-one save would.
+     */
+    private void collect(Person root) {
+        Deque<Person> toVisit = new ArrayDeque<>();
+        if (!newPeople.add(root)) return;
+        toVisit.add(root);
+        while (!toVisit.isEmpty()) {
+            Person person = toVisit.poll();
+            person.getParent().filter(this::isNew).ifPresent(parent -> visit(parent, toVisit));
+            Optional<Person> spouse = person.getSpouse();
+            if (spouse.isPresent()) {
+                Person partner = spouse.get();
+                partner.setSpouse(person);
+                if (isNew(partner)) {
+                    visit(partner, toVisit);
+                } else {
+                    link(partner, person, null);
+                }
+            }
+            for (Person child : person.getChildren()) {
+                if (isNew(child)) {
+                    visit(child, toVisit);
+                } else {
+                    link(child, null, person);
+                }
+            }
+        }
+    }
+
+    private boolean isNew(Person person) {
+        return person.getId() == null || newPeople.contains(person);
+    }
+
+    private void visit(Person person, Deque<Person> toVisit) {
+        if (newPeople.add(person)) {
+            toVisit.add(person);
+        }
+    }
+
+    private void link(Person person, Person spouse, Person parent) {
+        Links links = pendingLinks.get(person);
+        pendingLinks.put(person, links == null ? new Links(spouse, parent)
+                : new Links(spouse != null ? spouse : links.spouse(), parent != null ? parent : links.parent()));
+    }
+
+    private void saveAddresses() {
+        Set<Address> unsaved = Collections.newSetFromMap(new IdentityHashMap<>());
+        for (Person person : newPeople) {
+            person.getHomeAddress().filter(address -> address.id() == null).ifPresent(unsaved::add);
+            person.getBusinessAddress().filter(address -> address.id() == null).ifPresent(unsaved::add);
+        }
+        if (unsaved.isEmpty()) return;
+        if (addresses.isDeduplicating()) {
+            unsaved.forEach(addresses::saveOrReuse);
+        } else {
+            addresses.saveAll(unsaved);
+        }
+    }
+
+    private List<List<Person>> byGeneration() {
+        List<List<Person>> byGeneration = new ArrayList<>();
+        for (Person person : newPeople) {
+            int generation = generation(person);
+            while (byGeneration.size() <= generation) {
+                byGeneration.add(new ArrayList<>());
+            }
+            byGeneration.get(generation).add(person);
+        }
+        return byGeneration;
+    }
+
+    private int generation(Person person) {
+        Integer known = generations.get(person);
+        if (known != null) return known;
+        Optional<Person> parent = person.getParent();
+        int generation = parent.isPresent() && newPeople.contains(parent.get()) ? generation(parent.get()) + 1 : 0;
+        generations.put(person, generation);
+        return generation;
+    }
+
+    private void insert(List<Person> generation) throws SQLException {
+        people.withStatement(CrudOperation.SAVE, ps -> {
+            for (Person person : generation) {
+                bindInsert(person, ps);
+                ps.addBatch();
+            }
+            ps.executeBatch();
+            people.recordBatch(CrudOperation.SAVE, generation.size());
+            try (ResultSet rs = ps.getGeneratedKeys()) {
+                int idx = 0;
+                while (rs.next() && idx < generation.size()) {
+                    generation.get(idx++).setId(rs.getLong(1));
+                }
+            }
+            insertedPeople.addAll(generation);
+            return null;
+        });
+    }
+
+    private void bindInsert(Person person, PreparedStatement ps) throws SQLException {
+        people.mapForSave(person, ps);
+        Optional<Person> spouse = person.getSpouse();
+        if (spouse.isPresent() && newPeople.contains(spouse.get()) && !insertedPeople.contains(spouse.get())) {
+            setId(ps, 8, null);
+            link(person, spouse.get(), null);
+        }
+    }
+
+    private void linkPeople() throws SQLException {
+        if (pendingLinks.isEmpty()) return;
+        people.withStatement(CrudOperation.UPDATE, LINK_PEOPLE_SQL, ps -> {
+            for (Map.Entry<Person, Links> entry : pendingLinks.entrySet()) {
+                Links links = entry.getValue();
+                setId(ps, 1, links.spouse() == null ? null : links.spouse().getId());
+                setId(ps, 2, links.parent() == null ? null : links.parent().getId());
+                ps.setLong(3, entry.getKey().getId());
+                ps.addBatch();
+            }
+            int[] linked = ps.executeBatch();
+            people.recordBatch(CrudOperation.UPDATE, linked.length);
+            return linked;
+        });
+    }
+
+    static void setId(PreparedStatement ps, int index, Long id) throws SQLException {
+        if (id == null) {
+            ps.setNull(index, Types.BIGINT);
+        } else {
+            ps.setLong(index, id);
+        }
+    }
+}
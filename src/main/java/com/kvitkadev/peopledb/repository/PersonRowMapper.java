@@ -0,0 +1,255 @@
+package com.kvitkadev.peopledb.repository;
+
+import com.kvitkadev.peopledb.exception.DataException;
+import com.kvitkadev.peopledb.jfr.JoinRegroupEvent;
+import com.kvitkadev.peopledb.model.Address;
+import com.kvitkadev.peopledb.model.Person;
+import com.kvitkadev.peopledb.model.Region;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps the aliased PEOPLE queries of {@link PeopleRepository}: PARENT columns for the person itself and
+ * optional CHILD, SPOUSE, HOME and BIZ columns for its associations. Column indexes are resolved once per
+ * query shape, absent aliases are skipped, and rows are read by index only.
+ * <p>
+ * Inside a {@link Session} people and addresses already known to the session are returned as the session
+ * holds them instead of being built again from the row. Associations a new person's row does not carry are
+ * left to the {@link Associations} to load on first access.
+ */
+final class PersonRowMapper implements CrudRepository.RowMapper<Person> {
+    private static final ZoneId UTC = ZoneId.of("+0");
+
+    private final PersonColumns parent;
+    private final PersonColumns child;
+    private final PersonColumns spouse;
+    private final AddressColumns home;
+    private final AddressColumns biz;
+    private final LinkColumns links;
+    private final Associations associations;
+
+    /**
+     * Sets loaders for the associations of people built from a row.
+     */
+    interface Associations {
+        /**
+         * For a person whose row selects the ids of its addresses and spouse; null ids mean none.
+         */
+        void attach(Person person, Long homeAddressId, Long businessAddressId, Long spouseId);
+
+        /**
+         * For a person read from SPOUSE or CHILD columns, whose association ids are not on the row.
+         */
+        void attach(Person person);
+    }
+
+    private PersonRowMapper(PersonColumns parent, PersonColumns child, PersonColumns spouse,
+                            AddressColumns home, AddressColumns biz, LinkColumns links, Associations associations) {
+        if (parent == null) {
+            throw new DataException("Person queries must select PARENT_ID");
+        }
+        this.parent = parent;
+        this.child = child;
+        this.spouse = spouse;
+        this.home = home;
+        this.biz = biz;
+        this.links = links;
+        this.associations = associations;
+    }
+
+    static PersonRowMapper compile(ResultSetMetaData metadata, Associations associations) throws SQLException {
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = metadata.getColumnCount(); i >= 1; i--) {
+            columns.put(metadata.getColumnLabel(i).toUpperCase(), i);
+        }
+        return new PersonRowMapper(
+                PersonColumns.resolve(columns, "PARENT"),
+                PersonColumns.resolve(columns, "CHILD"),
+                PersonColumns.resolve(columns, "SPOUSE"),
+                AddressColumns.resolve(columns, "HOME"),
+                AddressColumns.resolve(columns, "BIZ"),
+                LinkColumns.resolve(columns),
+                associations);
+    }
+
+    /**
+     * Maps the person on the current row and collects its children from the following rows
+     * with the same PARENT_ID. Stops on the person's last row, stepping back if it overran.
+     * The regrouping is emitted as a {@link JoinRegroupEvent} with the number of rows folded into the person.
+     * A person the session already knew keeps its children; its rows are skipped.
+     */
+    @Override
+    public Person mapEntity(ResultSet rs) throws SQLException {
+        JoinRegroupEvent event = new JoinRegroupEvent();
+        event.begin();
+        Session session = Session.current();
+        long personId = rs.getLong(parent.id);
+        boolean known = known(session, personId) != null;
+        Person person = mapRow(rs, session);
+        if (!known) addChild(rs, person, session);
+        int joinedRows = 1;
+        while (rs.next()) {
+            if (rs.getLong(parent.id) != personId) {
+                rs.previous();
+                break;
+            }
+            if (!known) addChild(rs, person, session);
+            joinedRows++;
+        }
+        event.commit(Person.class, personId, joinedRows);
+        return person;
+    }
+
+    @Override
+    public Person mapRow(ResultSet rs) throws SQLException {
+        return mapRow(rs, Session.current());
+    }
+
+    private Person mapRow(ResultSet rs, Session session) throws SQLException {
+        Person known = known(session, rs.getLong(parent.id));
+        if (known != null) return known;
+        Person person = parent.read(rs, session);
+        if (links != null) {
+            associations.attach(person, links.read(rs, links.homeAddress), links.read(rs, links.businessAddress),
+                    links.read(rs, links.spouse));
+        }
+        if (spouse != null) {
+            person.setSpouse(readAssociated(spouse, rs, session));
+        }
+        if (home != null) {
+            person.setHomeAddress(home.read(rs, session));
+        }
+        if (biz != null) {
+            person.setBusinessAddress(biz.read(rs, session));
+        }
+        return tracked(person);
+    }
+
+    private void addChild(ResultSet rs, Person person, Session session) throws SQLException {
+        if (child == null) return;
+        Person foundChild = readAssociated(child, rs, session);
+        if (foundChild != null) {
+            person.addChild(foundChild);
+        }
+    }
+
+    private Person readAssociated(PersonColumns columns, ResultSet rs, Session session) throws SQLException {
+        long personId = rs.getLong(columns.id);
+        if (rs.wasNull()) return null;
+        Person known = known(session, personId);
+        if (known != null) return known;
+        Person person = columns.read(rs, session);
+        associations.attach(person);
+        return tracked(person);
+    }
+
+    private static Person known(Session session, long personId) {
+        return session == null ? null : session.find(Person.class, personId);
+    }
+
+    /**
+     * Starts change tracking on people built from the row.
+     */
+    private static Person tracked(Person person) {
+        if (!person.isTrackingChanges()) {
+            person.trackChanges();
+        }
+        return person;
+    }
+
+    private static int required(Map<String, Integer> columns, String label) {
+        Integer idx = columns.get(label);
+        if (idx == null) {
+            throw new DataException("Query selects " + label.substring(0, label.indexOf('_')) + "_ID but not " + label);
+        }
+        return idx;
+    }
+
+    private record PersonColumns(int id, int firstName, int lastName, int dob, int salary, int email) {
+
+        static PersonColumns resolve(Map<String, Integer> columns, String alias) {
+            Integer id = columns.get(alias + "_ID");
+            if (id == null) return null;
+            return new PersonColumns(id,
+                    required(columns, alias + "_FIRST_NAME"),
+                    required(columns, alias + "_LAST_NAME"),
+                    required(columns, alias + "_DOB"),
+                    required(columns, alias + "_SALARY"),
+                    columns.getOrDefault(alias + "_EMAIL", 0));
+        }
+
+        Person read(ResultSet rs, Session session) throws SQLException {
+            long personId = rs.getLong(id);
+            if (rs.wasNull()) return null;
+            if (session != null) {
+                Person known = session.find(Person.class, personId);
+                if (known != null) return known;
+            }
+            LocalDateTime dateOfBirth = rs.getObject(dob, LocalDateTime.class);
+            Person person = new Person(personId, rs.getString(firstName), rs.getString(lastName),
+                    dateOfBirth == null ? null : ZonedDateTime.of(dateOfBirth, UTC), rs.getBigDecimal(salary));
+            if (email > 0) {
+                person.setEmail(rs.getString(email));
+            }
+            return session == null ? person : session.register(Person.class, personId, person);
+        }
+    }
+
+    /**
+     * The PARENT_HOME_ADDRESS, PARENT_BIZ_ADDRESS and PARENT_SPOUSE_ID columns of queries that load
+     * associations lazily instead of joining them.
+     */
+    private record LinkColumns(int homeAddress, int businessAddress, int spouse) {
+
+        static LinkColumns resolve(Map<String, Integer> columns) {
+            Integer spouse = columns.get("PARENT_SPOUSE_ID");
+            if (spouse == null) return null;
+            return new LinkColumns(required(columns, "PARENT_HOME_ADDRESS"), required(columns, "PARENT_BIZ_ADDRESS"),
+                    spouse);
+        }
+
+        Long read(ResultSet rs, int idx) throws SQLException {
+            long id = rs.getLong(idx);
+            return rs.wasNull() ? null : id;
+        }
+    }
+
+    private record AddressColumns(int id, int street, int address2, int city, int state, int postcode,
+                                  int county, int region, int country) {
+
+        static AddressColumns resolve(Map<String, Integer> columns, String alias) {
+            Integer id = columns.get(alias + "_ID");
+            if (id == null) return null;
+            return new AddressColumns(id,
+                    required(columns, alias + "_STREET"),
+                    required(columns, alias + "_ADDRESS2"),
+                    required(columns, alias + "_CITY"),
+                    required(columns, alias + "_STATE"),
+                    required(columns, alias + "_POSTCODE"),
+                    required(columns, alias + "_COUNTY"),
+                    required(columns, alias + "_REGION"),
+                    required(columns, alias + "_COUNTRY"));
+        }
+
+        Address read(ResultSet rs, Session session) throws SQLException {
+            long addressId = rs.getLong(id);
+            if (rs.wasNull()) return null;
+            if (session != null) {
+                Address known = session.find(Address.class, addressId);
+                if (known != null) return known;
+            }
+            String regionName = rs.getString(region);
+            Address address = new Address(addressId, rs.getString(street), rs.getString(address2), rs.getString(city),
+                    rs.getString(state), rs.getString(postcode), rs.getString(country), rs.getString(county),
+                    regionName == null ? null : Region.valueOf(regionName.toUpperCase()));
+            return session == null ? address : session.register(Address.class, addressId, address);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.kvitkadev.peopledb.repository;
+
+import com.kvitkadev.peopledb.annotation.SQL;
+import com.kvitkadev.peopledb.model.CrudOperation;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * SQL declared through {@link SQL} annotations on a repository class, collected once per class.
+ * Annotations on a subclass win over the ones inherited from its superclasses.
+ */
+final class RepositoryMetadata {
+    private static final ClassValue<RepositoryMetadata> CACHE = new ClassValue<>() {
+        @Override
+        protected RepositoryMetadata computeValue(Class<?> type) {
+            return new RepositoryMetadata(type);
+        }
+    };
+
+    private final Map<CrudOperation, String> sqlByOperation = new EnumMap<>(CrudOperation.class);
+    private final Class<?> entityType;
+
+    private RepositoryMetadata(Class<?> repositoryType) {
+        this.entityType = resolveEntityType(repositoryType);
+        for (Class<?> type = repositoryType; type != null && type != Object.class; type = type.getSuperclass()) {
+            for (Method method : type.getDeclaredMethods()) {
+                for (SQL sql : method.getAnnotationsByType(SQL.class)) {
+                    sqlByOperation.putIfAbsent(sql.operationType(), sql.value());
+                }
+            }
+        }
+    }
+
+    private static Class<?> resolveEntityType(Class<?> repositoryType) {
+        for (Class<?> type = repositoryType; type != null && type != Object.class; type = type.getSuperclass()) {
+            if (type.getGenericSuperclass() instanceof ParameterizedType parameterized
+                    && parameterized.getRawType() == CrudRepository.class
+                    && parameterized.getActualTypeArguments()[0] instanceof Class<?> entity) {
+                return entity;
+            }
+        }
+        return Object.class;
+    }
+
+    static RepositoryMetadata of(Class<?> repositoryType) {
+        return CACHE.get(repositoryType);
+    }
+
+    /**
+     * @return annotated SQL for the operation or {@code null} if the repository declares none
+     */
+    String sql(CrudOperation operation) {
+        return sqlByOperation.get(operation);
+    }
+
+    /**
+     * @return the entity type the repository is declared for
+     */
+    Class<?> entityType() {
+        return entityType;
+    }
+}
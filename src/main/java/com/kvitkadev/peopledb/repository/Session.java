@@ -0,0 +1,85 @@
+package com.kvitkadev.peopledb.repository;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Unit of work bound to the thread that opened it. While a session is open, repositories resolve every
+ * entity they map or save through its identity map, so one id materializes as one instance per session
+ * and links such as spouse, parent and children point to the same objects.
+ * <pre>
+ * try (Session session = Session.open()) {
+ *     Person john = repo.findById(johnId).get();
+ *     Person mary = repo.findById(maryId).get();   // same instance as john.getSpouse().get()
+ * }
+ * </pre>
+ * Sessions nest: closing one restores the session that was current when it was opened.
+ */
+public final class Session implements AutoCloseable {
+    private static final ThreadLocal<Session> CURRENT = new ThreadLocal<>();
+
+    private final Map<Class<?>, Map<Object, Object>> identityMap = new HashMap<>();
+    private final Session previous;
+    private final Thread owner;
+
+    private Session(Session previous) {
+        this.previous = previous;
+        this.owner = Thread.currentThread();
+    }
+
+    public static Session open() {
+        Session session = new Session(CURRENT.get());
+        CURRENT.set(session);
+        return session;
+    }
+
+    /**
+     * @return the session open on this thread, or {@code null} when there is none
+     */
+    public static Session current() {
+        return CURRENT.get();
+    }
+
+    public <E> E find(Class<E> type, Object id) {
+        Map<Object, Object> entities = identityMap.get(type);
+        return entities == null ? null : type.cast(entities.get(id));
+    }
+
+    /**
+     * Registers the entity unless the session already holds one with the same id.
+     *
+     * @return the instance the session holds for the id
+     */
+    public <E> E register(Class<E> type, Object id, E entity) {
+        Object existing = identityMap.computeIfAbsent(type, t -> new HashMap<>()).putIfAbsent(id, entity);
+        return existing == null ? entity : type.cast(existing);
+    }
+
+    public void evict(Class<?> type, Object id) {
+        Map<Object, Object> entities = identityMap.get(type);
+        if (entities != null) {
+            entities.remove(id);
+        }
+    }
+
+    public void clear() {
+        identityMap.clear();
+    }
+
+    public int size() {
+        return identityMap.values().stream().mapToInt(Map::size).sum();
+    }
+
+    @Override
+    public void close() {
+        if (Thread.currentThread() != owner || CURRENT.get() != this) {
+            throw new IllegalStateException("Session must be closed by the thread that opened it, innermost first");
+        }
+        identityMap.clear();
+        if (previous == null) {
+            CURRENT.remove();
+        } else {
+            CURRENT.set(previous);
+        }
+    }
+}
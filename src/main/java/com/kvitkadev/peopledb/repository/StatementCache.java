@@ -0,0 +1,150 @@
+package com.kvitkadev.peopledb.repository;
+
+import com.kvitkadev.peopledb.jfr.StatementPrepareEvent;
+import com.kvitkadev.peopledb.model.CrudOperation;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of prepared statements for one connection, keyed by {@link CrudOperation} and SQL text.
+ * <p>
+ * Statements are checked out with {@link #acquire(CrudOperation, String)} and handed back with
+ * {@link #release(CrudOperation, String, PreparedStatement)}, or closed with {@link #discard(PreparedStatement)}
+ * when the operation failed. A checked out statement is not in the cache, so nested operations (e.g. saving
+ * a spouse while the person's SAVE statement is being bound) get their own statement, and eviction never
+ * closes a statement that is still in use.
+ * <p>
+ * Not thread-safe on its own: only the thread holding the connection's lease may use it.
+ */
+public final class StatementCache implements AutoCloseable {
+    static final int DEFAULT_MAX_SIZE = 64;
+
+    private record Key(CrudOperation operation, String sql) {
+    }
+
+    private final Connection connection;
+    private final int maxSize;
+    private final Map<Key, PreparedStatement> statements;
+    private long hits;
+    private long misses;
+    private long evictions;
+
+    public StatementCache(Connection connection) {
+        this(connection, DEFAULT_MAX_SIZE);
+    }
+
+    public StatementCache(Connection connection, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Statement cache size must be positive: " + maxSize);
+        }
+        this.connection = connection;
+        this.maxSize = maxSize;
+        this.statements = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    PreparedStatement acquire(CrudOperation operation, String sql) throws SQLException {
+        PreparedStatement ps = statements.remove(new Key(operation, sql));
+        if (ps != null && !ps.isClosed()) {
+            hits++;
+            return ps;
+        }
+        misses++;
+        StatementPrepareEvent event = new StatementPrepareEvent();
+        event.begin();
+        PreparedStatement prepared = prepare(operation, sql);
+        event.commit(operation, sql);
+        return prepared;
+    }
+
+    /**
+     * Puts the statement back for reuse, without any pending batch rows or bound parameters.
+     * A statement that cannot be cleared is closed instead.
+     */
+    void release(CrudOperation operation, String sql, PreparedStatement ps) {
+        if (ps == null) return;
+        try {
+            ps.clearBatch();
+            ps.clearParameters();
+        } catch (SQLException e) {
+            closeQuietly(ps);
+            return;
+        }
+        Key key = new Key(operation, sql);
+        if (statements.containsKey(key)) {
+            closeQuietly(ps);
+            return;
+        }
+        statements.put(key, ps);
+        if (statements.size() > maxSize) {
+            Map.Entry<Key, PreparedStatement> eldest = statements.entrySet().iterator().next();
+            statements.remove(eldest.getKey());
+            closeQuietly(eldest.getValue());
+            evictions++;
+        }
+    }
+
+    /**
+     * Closes a statement left in an unknown state by a failed operation, instead of caching it.
+     */
+    void discard(PreparedStatement ps) {
+        if (ps != null) {
+            closeQuietly(ps);
+        }
+    }
+
+    private PreparedStatement prepare(CrudOperation operation, String sql) throws SQLException {
+        return switch (operation) {
+            case SAVE -> connection.prepareStatement(sql, PreparedStatement.RETURN_GENERATED_KEYS);
+            case FIND_ALL, FIND_ALL_BY_ID -> connection.prepareStatement(sql, ResultSet.TYPE_SCROLL_INSENSITIVE,
+                    ResultSet.CONCUR_READ_ONLY);
+            default -> connection.prepareStatement(sql);
+        };
+    }
+
+    private static void closeQuietly(PreparedStatement ps) {
+        try {
+            ps.close();
+        } catch (SQLException ignored) {
+        }
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+
+    public int size() {
+        return statements.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    @Override
+    public void close() {
+        List<PreparedStatement> cached = new ArrayList<>(statements.values());
+        statements.clear();
+        cached.forEach(StatementCache::closeQuietly);
+    }
+
+    @Override
+    public String toString() {
+        return "StatementCache[size=" + statements.size() + ", maxSize=" + maxSize + ", hits=" + hits
+                + ", misses=" + misses + ", evictions=" + evictions + ']';
+    }
+}
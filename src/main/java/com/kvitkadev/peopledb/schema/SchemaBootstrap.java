@@ -0,0 +1,170 @@
+package com.kvitkadev.peopledb.schema;
+
+import com.kvitkadev.peopledb.exception.DataException;
+
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Creates the PEOPLE and ADDRESSES tables and their secondary indexes, and checks that the indexes exist.
+ * <p>
+ * Every statement is {@code IF NOT EXISTS}, so {@link #create(Connection)} can run at every startup against a new
+ * in-memory database or an existing file database alike.
+ */
+public final class SchemaBootstrap {
+
+    /**
+     * A secondary index, identified by the table and the columns it leads with.
+     */
+    public record IndexSpec(String name, String table, List<String> columns, boolean unique) {
+
+        public IndexSpec(String name, String table, List<String> columns) {
+            this(name, table, columns, false);
+        }
+
+        String ddl() {
+            return "CREATE " + (unique ? "UNIQUE " : "") + "INDEX IF NOT EXISTS " + name + " ON " + table
+                    + " (" + String.join(", ", columns) + ")";
+        }
+    }
+
+    private static final List<String> TABLES = List.of("""
+            CREATE TABLE IF NOT EXISTS ADDRESSES (
+                ID BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                STREET_ADDRESS VARCHAR(255),
+                ADDRESS2 VARCHAR(255),
+                CITY VARCHAR(255),
+                STATE VARCHAR(255),
+                POSTCODE VARCHAR(32),
+                COUNTY VARCHAR(255),
+                REGION VARCHAR(32),
+                COUNTRY VARCHAR(255),
+                CONTENT_KEY VARCHAR(64)
+            )
+            """,
+            "ALTER TABLE ADDRESSES ADD COLUMN IF NOT EXISTS CONTENT_KEY VARCHAR(64)", """
+            CREATE TABLE IF NOT EXISTS PEOPLE (
+                ID BIGINT GENERATED BY DEFAULT AS IDENTITY PRIMARY KEY,
+                FIRST_NAME VARCHAR(255),
+                LAST_NAME VARCHAR(255),
+                DOB TIMESTAMP,
+                SALARY DECIMAL(15, 2) DEFAULT 0,
+                EMAIL VARCHAR(255),
+                HOME_ADDRESS BIGINT,
+                BIZ_ADDRESS BIGINT,
+                SPOUSE_ID BIGINT,
+                PARENT_ID BIGINT
+            )
+            """);
+
+    /**
+     * Foreign keys followed by the FIND_BY_ID joins, then the columns criteria queries filter on,
+     * then the key of the address deduplication lookup, unique so concurrent savers cannot insert the same
+     * address twice.
+     */
+    public static final List<IndexSpec> INDEXES = List.of(
+            new IndexSpec("IDX_PEOPLE_PARENT_ID", "PEOPLE", List.of("PARENT_ID")),
+            new IndexSpec("IDX_PEOPLE_SPOUSE_ID", "PEOPLE", List.of("SPOUSE_ID")),
+            new IndexSpec("IDX_PEOPLE_HOME_ADDRESS", "PEOPLE", List.of("HOME_ADDRESS")),
+            new IndexSpec("IDX_PEOPLE_BIZ_ADDRESS", "PEOPLE", List.of("BIZ_ADDRESS")),
+            new IndexSpec("IDX_PEOPLE_LAST_NAME", "PEOPLE", List.of("LAST_NAME")),
+            new IndexSpec("IDX_PEOPLE_EMAIL", "PEOPLE", List.of("EMAIL")),
+            new IndexSpec("IDX_PEOPLE_DOB", "PEOPLE", List.of("DOB")),
+            new IndexSpec("IDX_PEOPLE_SALARY", "PEOPLE", List.of("SALARY")),
+            new IndexSpec("UX_ADDRESSES_CONTENT_KEY", "ADDRESSES", List.of("CONTENT_KEY"), true));
+
+    private SchemaBootstrap() {
+    }
+
+    /**
+     * Creates whatever part of the schema is missing. Commits if the connection is not in auto-commit mode.
+     */
+    public static void create(Connection connection) {
+        try (Statement statement = connection.createStatement()) {
+            for (String table : TABLES) {
+                statement.execute(table);
+            }
+            for (IndexSpec index : INDEXES) {
+                statement.execute(index.ddl());
+            }
+            if (!connection.getAutoCommit()) {
+                connection.commit();
+            }
+        } catch (SQLException e) {
+            throw new DataException("Unable to create the people schema", e);
+        }
+    }
+
+    /**
+     * @return the expected indexes for which the database has no index leading with the same columns
+     */
+    public static List<IndexSpec> findMissingIndexes(Connection connection) {
+        try {
+            DatabaseMetaData metaData = connection.getMetaData();
+            List<IndexSpec> missing = new ArrayList<>();
+            for (IndexSpec index : INDEXES) {
+                if (!leadingColumnLists(metaData, index.table()).contains(index.columns())) {
+                    missing.add(index);
+                }
+            }
+            return missing;
+        } catch (SQLException e) {
+            throw new DataException("Unable to read the indexes of the people schema", e);
+        }
+    }
+
+    /**
+     * Fails startup when an expected index is missing, naming the missing ones.
+     */
+    public static void verify(Connection connection) {
+        List<IndexSpec> missing = findMissingIndexes(connection);
+        if (!missing.isEmpty()) {
+            throw new DataException("Missing indexes: " + missing);
+        }
+    }
+
+    /**
+     * Creates the schema where needed and verifies it.
+     */
+    public static void ensure(Connection connection) {
+        create(connection);
+        verify(connection);
+    }
+
+    /**
+     * @return for every index on the table, each prefix of its column list, so an index on (A, B)
+     * also satisfies an expected index on (A)
+     */
+    private static Set<List<String>> leadingColumnLists(DatabaseMetaData metaData, String table) throws SQLException {
+        Map<String, List<String>> columnsByIndex = new HashMap<>();
+        try (ResultSet rs = metaData.getIndexInfo(null, null, table, false, true)) {
+            while (rs.next()) {
+                String name = rs.getString("INDEX_NAME");
+                String column = rs.getString("COLUMN_NAME");
+                int position = rs.getShort("ORDINAL_POSITION");
+                if (name == null || column == null) continue;
+                List<String> columns = columnsByIndex.computeIfAbsent(name, key -> new ArrayList<>());
+                while (columns.size() < position) {
+                    columns.add(null);
+                }
+                columns.set(position - 1, column.toUpperCase());
+            }
+        }
+        Set<List<String>> prefixes = new HashSet<>();
+        for (List<String> columns : columnsByIndex.values()) {
+            for (int i = 1; i <= columns.size(); i++) {
+                prefixes.add(new ArrayList<>(columns.subList(0, i)));
+            }
+        }
+        return prefixes;
+    }
+}
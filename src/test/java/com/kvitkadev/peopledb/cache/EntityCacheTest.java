@@ -0,0 +1,79 @@
+package com.kvitkadev.peopledb.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EntityCacheTest {
+    private final AtomicInteger loads = new AtomicInteger();
+
+    private Optional<String> load(Long id) {
+        loads.incrementAndGet();
+        return id < 0 ? Optional.empty() : Optional.of("entity-" + id);
+    }
+
+    @Test
+    public void loadsOnceAndThenHits() {
+        EntityCache<String> cache = new EntityCache<>(10);
+        assertThat(cache.get(1L, this::load)).contains("entity-1");
+        assertThat(cache.get(1L, this::load)).contains("entity-1");
+        assertThat(loads).hasValue(1);
+        assertThat(cache.stats().hitRate()).isEqualTo(0.5);
+    }
+
+    @Test
+    public void doesNotCacheMissingEntities() {
+        EntityCache<String> cache = new EntityCache<>(10);
+        assertThat(cache.get(-1L, this::load)).isEmpty();
+        assertThat(cache.get(-1L, this::load)).isEmpty();
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() {
+        EntityCache<String> cache = new EntityCache<>(2);
+        cache.get(1L, this::load);
+        cache.get(2L, this::load);
+        cache.get(1L, this::load);
+        cache.get(3L, this::load);
+        cache.get(1L, this::load);
+        assertThat(loads).hasValue(3);
+        assertThat(cache.stats().evictions()).isEqualTo(1);
+        cache.get(2L, this::load);
+        assertThat(loads).hasValue(4);
+    }
+
+    @Test
+    public void expiresAfterTtl() throws InterruptedException {
+        EntityCache<String> cache = new EntityCache<>(10, Duration.ofMillis(1));
+        cache.get(1L, this::load);
+        Thread.sleep(5);
+        cache.get(1L, this::load);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    public void invalidateForcesReload() {
+        EntityCache<String> cache = new EntityCache<>(10);
+        cache.get(1L, this::load);
+        cache.invalidate(1L);
+        cache.get(1L, this::load);
+        assertThat(loads).hasValue(2);
+    }
+
+    @Test
+    public void invalidatingRelatedIdEvictsReferrers() {
+        EntityCache<String> cache = new EntityCache<>(10);
+        cache.get(1L, this::load, value -> List.of(2L));
+        cache.get(3L, this::load);
+        cache.invalidate(2L);
+        cache.get(1L, this::load);
+        cache.get(3L, this::load);
+        assertThat(loads).hasValue(3);
+    }
+}
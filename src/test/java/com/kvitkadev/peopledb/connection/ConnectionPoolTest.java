@@ -0,0 +1,92 @@
+package com.kvitkadev.peopledb.connection;
+
+import com.kvitkadev.peopledb.exception.DataException;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ConnectionPoolTest {
+    private final AtomicInteger openedConnections = new AtomicInteger();
+
+    private Connection fakeConnection() {
+        openedConnections.incrementAndGet();
+        boolean[] closed = {false};
+        return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[]{Connection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "isClosed" -> closed[0];
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    case "toString" -> "FakeConnection@" + System.identityHashCode(proxy);
+                    case "close" -> {
+                        closed[0] = true;
+                        yield null;
+                    }
+                    default -> null;
+                });
+    }
+
+    @Test
+    public void nestedAcquireReturnsSameLease() {
+        try (ConnectionPool pool = new ConnectionPool(this::fakeConnection, 2)) {
+            try (ConnectionLease outer = pool.acquire()) {
+                try (ConnectionLease inner = pool.acquire()) {
+                    assertThat(inner).isSameAs(outer);
+                }
+                assertThat(pool.getIdleConnections()).isZero();
+            }
+            assertThat(pool.getIdleConnections()).isEqualTo(1);
+            assertThat(openedConnections).hasValue(1);
+        }
+    }
+
+    @Test
+    public void reusesReleasedConnections() {
+        try (ConnectionPool pool = new ConnectionPool(this::fakeConnection, 2)) {
+            Connection first;
+            try (ConnectionLease lease = pool.acquire()) {
+                first = lease.connection();
+            }
+            try (ConnectionLease lease = pool.acquire()) {
+                assertThat(lease.connection()).isSameAs(first);
+            }
+            assertThat(openedConnections).hasValue(1);
+        }
+    }
+
+    @Test
+    public void leaseClosedOnAnotherThreadReturnsToPool() {
+        try (ConnectionPool pool = new ConnectionPool(this::fakeConnection, 2)) {
+            ConnectionLease streamed = pool.acquire();
+            CompletableFuture.runAsync(streamed::close).join();
+            assertThat(pool.getIdleConnections()).isEqualTo(1);
+
+            try (ConnectionLease mine = pool.acquire()) {
+                assertThat(pool.getIdleConnections()).isZero();
+                Connection other = CompletableFuture.supplyAsync(() -> {
+                    try (ConnectionLease theirs = pool.acquire()) {
+                        return theirs.connection();
+                    }
+                }).join();
+                assertThat(other).isNotSameAs(mine.connection());
+            }
+            assertThat(pool.getIdleConnections()).isEqualTo(2);
+        }
+    }
+
+    @Test
+    public void timesOutWhenAllConnectionsAreLeased() {
+        try (ConnectionPool pool = new ConnectionPool(this::fakeConnection, 1)) {
+            pool.setAcquireTimeoutMillis(50);
+            try (ConnectionLease ignored = pool.acquire()) {
+                CompletableFuture<ConnectionLease> other = CompletableFuture.supplyAsync(pool::acquire);
+                assertThatThrownBy(other::join).hasCauseInstanceOf(DataException.class);
+            }
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.kvitkadev.peopledb.ingest;
+
+import com.kvitkadev.peopledb.schema.SchemaBootstrap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CsvIngestionPipelineTest {
+    private static final String HEADER = "Emp ID,Name Prefix,First Name,Middle Initial,Last Name";
+    private static final String LINE = "677509,Drs.,%s,H,Walker,F,lois.walker@hotmail.com,Donald Walker,Helen Walker,"
+            + "Lewis,3/29/1981,01:36:55 AM,36.36,60,11/24/2003,Q4,H2,2003,11,November,Nov,24,Monday,Mon,13.68,168251,"
+            + "21%%,467-99-4677,303-572-8492,Denver,Denver,Denver,CO,80224,West,lhwalker,DCa}.T}X:v?NP";
+
+    @TempDir
+    Path tempDir;
+
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:csv-ingestion");
+        SchemaBootstrap.ensure(connection);
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void failedWriteReleasesEveryWorker() throws IOException, SQLException, InterruptedException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ALTER TABLE PEOPLE ADD CONSTRAINT FIRST_NAME_NOT_BOOM CHECK (FIRST_NAME <> 'Boom')");
+        }
+        List<String> lines = new ArrayList<>();
+        lines.add(HEADER);
+        for (int i = 0; i < 2_000; i++) {
+            lines.add(String.format(LINE, i == 50 ? "Boom" : "Lois"));
+        }
+        Path csv = Files.write(tempDir.resolve("people.csv"), lines);
+        CsvIngestionPipeline pipeline = new CsvIngestionPipeline(connection);
+        pipeline.setChunkSize(10);
+        pipeline.setQueueCapacity(1);
+        pipeline.setParserThreads(2);
+
+        assertThatThrownBy(() -> pipeline.ingest(csv)).isInstanceOf(RuntimeException.class);
+
+        long deadline = System.nanoTime() + 5_000_000_000L;
+        while (liveWorkers() > 0 && System.nanoTime() < deadline) {
+            Thread.sleep(20);
+        }
+        assertThat(liveWorkers()).isZero();
+    }
+
+    private static long liveWorkers() {
+        return Thread.getAllStackTraces().keySet().stream()
+                .filter(thread -> thread.isAlive() && thread.getName().startsWith("csv-ingest-"))
+                .count();
+    }
+}
@@ -0,0 +1,35 @@
+package com.kvitkadev.peopledb.ingest;
+
+import com.kvitkadev.peopledb.model.Person;
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class PersonCsvParserTest {
+    private static final String LINE = "677509,Drs.,Lois,H,Walker,F,lois.walker@hotmail.com,Donald Walker,Helen Walker,"
+            + "Lewis,3/29/1981,01:36:55 AM,36.36,60,11/24/2003,Q4,H2,2003,11,November,Nov,24,Monday,Mon,13.68,168251,"
+            + "21%,467-99-4677,303-572-8492,Denver,Denver,Denver,CO,80224,West,lhwalker,DCa}.T}X:v?NP";
+
+    private final PersonCsvParser parser = new PersonCsvParser();
+
+    @Test
+    public void canParseHr5mLine() {
+        Person person = parser.parse(LINE);
+        assertThat(person.getFirstName()).isEqualTo("Lois");
+        assertThat(person.getLastName()).isEqualTo("Walker");
+        assertThat(person.getEmail()).isEqualTo("lois.walker@hotmail.com");
+        assertThat(person.getSalary()).isEqualByComparingTo(new BigDecimal("168251"));
+        assertThat(person.getDob()).isEqualTo(ZonedDateTime.of(1981, 3, 29, 1, 36, 55, 0, ZoneId.of("+0")));
+    }
+
+    @Test
+    public void rejectsShortLine() {
+        assertThatThrownBy(() -> parser.parse("677509,Drs.,Lois"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,23 @@
+package com.kvitkadev.peopledb.jfr;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SqlFingerprintTest {
+
+    @Test
+    public void collapsesWhitespace() {
+        assertThat(SqlFingerprint.of("""
+                SELECT ID, FIRST_NAME
+                FROM   PEOPLE
+                WHERE ID = ?
+                """)).isEqualTo("SELECT ID, FIRST_NAME FROM PEOPLE WHERE ID = ?");
+    }
+
+    @Test
+    public void replacesLiteralsButNotIdentifiers() {
+        assertThat(SqlFingerprint.of("SELECT ADDRESS2 FROM ADDRESSES WHERE CITY = 'O''Hare' AND ID > 42.5 LIMIT 10"))
+                .isEqualTo("SELECT ADDRESS2 FROM ADDRESSES WHERE CITY = ? AND ID > ? LIMIT ?");
+    }
+}
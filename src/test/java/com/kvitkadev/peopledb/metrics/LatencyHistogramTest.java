@@ -0,0 +1,36 @@
+package com.kvitkadev.peopledb.metrics;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueContiguously() {
+        for (long value = 0; value < 100_000; value++) {
+            int bucket = LatencyHistogram.bucket(value);
+            assertThat(LatencyHistogram.highestValueIn(bucket)).isGreaterThanOrEqualTo(value);
+            if (bucket > 0) {
+                assertThat(LatencyHistogram.highestValueIn(bucket - 1)).isLessThan(value);
+            }
+        }
+        assertThat(LatencyHistogram.bucket(Long.MAX_VALUE)).isLessThan(2000);
+    }
+
+    @Test
+    public void reportsPercentilesWithinThreePercent() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10_000; value++) {
+            histogram.record(value * 1_000);
+        }
+
+        assertThat(histogram.getCount()).isEqualTo(10_000);
+        assertThat(histogram.getMax()).isEqualTo(10_000_000);
+        assertThat((double) histogram.getValueAtPercentile(50)).isCloseTo(5_000_000, within(150_000.0));
+        assertThat((double) histogram.getValueAtPercentile(99)).isCloseTo(9_900_000, within(300_000.0));
+        assertThat(histogram.getValueAtPercentile(100)).isEqualTo(10_000_000);
+        assertThat(histogram.getMean()).isCloseTo(5_000_500, within(1.0));
+    }
+}
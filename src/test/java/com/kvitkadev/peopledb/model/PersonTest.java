@@ -2,8 +2,10 @@ package com.kvitkadev.peopledb.model;
 
 import org.junit.jupiter.api.Test;
 
+import java.math.BigDecimal;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.Optional;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -31,4 +33,32 @@ class PersonTest {
         assertThat(p1).isNotEqualTo(p2);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void settingTheLazySpouseAgainLeavesItUnchanged() {
+        ZonedDateTime dob = ZonedDateTime.of(2000, 9, 1, 12, 0, 0, 0, ZoneId.of("+0"));
+        Person wife = new Person(2L, "Jane", "Smith", dob, BigDecimal.ZERO);
+        Person husband = new Person(1L, "John", "Smith", dob, BigDecimal.ZERO);
+        husband.setSpouseLoader(2L, () -> {
+            throw new AssertionError("spouse should not be loaded");
+        });
+        husband.trackChanges();
+
+        husband.setSpouse(wife);
+
+        assertThat(husband.getChangedProperties()).hasValueSatisfying(changed -> assertThat(changed).isEmpty());
+    }
+
+    @Test
+    public void replacingTheLazySpouseMarksItChanged() {
+        ZonedDateTime dob = ZonedDateTime.of(2000, 9, 1, 12, 0, 0, 0, ZoneId.of("+0"));
+        Person wife = new Person(2L, "Jane", "Smith", dob, BigDecimal.ZERO);
+        Person husband = new Person(1L, "John", "Smith", dob, BigDecimal.ZERO);
+        husband.setSpouseLoader(() -> Optional.of(new Person(3L, "Ann", "Smith", dob, BigDecimal.ZERO)));
+        husband.trackChanges();
+
+        husband.setSpouse(wife);
+
+        assertThat(husband.getChangedProperties()).hasValueSatisfying(
+                changed -> assertThat(changed).containsExactly(Person.Property.SPOUSE));
+    }
+}
@@ -0,0 +1,38 @@
+package com.kvitkadev.peopledb.repository;
+
+import com.kvitkadev.peopledb.model.Address;
+import com.kvitkadev.peopledb.model.CrudOperation;
+import com.kvitkadev.peopledb.model.Person;
+import com.kvitkadev.peopledb.model.Region;
+import org.junit.jupiter.api.Test;
+
+import java.time.ZonedDateTime;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EntityMetadataTest {
+
+    @Test
+    public void canReadAndWritePersonId() {
+        Person person = new Person("John", "Smith", ZonedDateTime.now());
+        EntityMetadata metadata = EntityMetadata.of(Person.class);
+        metadata.setId(person, 42L);
+        assertThat(person.getId()).isEqualTo(42L);
+        assertThat(metadata.getId(person)).isEqualTo(42L);
+    }
+
+    @Test
+    public void canWriteFinalAddressId() {
+        Address address = new Address(null, "123 Beale St.", "Apt. 1A", "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST);
+        EntityMetadata.of(Address.class).setId(address, 7L);
+        assertThat(address.id()).isEqualTo(7L);
+    }
+
+    @Test
+    public void collectsAnnotatedSqlOncePerRepositoryClass() {
+        RepositoryMetadata metadata = RepositoryMetadata.of(PeopleRepository.class);
+        assertThat(metadata).isSameAs(RepositoryMetadata.of(PeopleRepository.class));
+        assertThat(metadata.sql(CrudOperation.COUNT)).isEqualTo("SELECT COUNT(*) FROM PEOPLE");
+        assertThat(metadata.sql(CrudOperation.SAVE)).contains("INSERT INTO PEOPLE");
+    }
+}
@@ -1,39 +1,63 @@
 package com.kvitkadev.peopledb.repository;
 
+import com.kvitkadev.peopledb.cache.EntityCache;
+import com.kvitkadev.peopledb.connection.ConnectionLease;
+import com.kvitkadev.peopledb.ingest.CsvIngestionPipeline;
+import com.kvitkadev.peopledb.metrics.MetricsRegistry;
+import com.kvitkadev.peopledb.metrics.SlowQueryLog;
 import com.kvitkadev.peopledb.model.Address;
+import com.kvitkadev.peopledb.model.CrudOperation;
+import com.kvitkadev.peopledb.model.FetchPlan;
+import com.kvitkadev.peopledb.model.LookupResult;
+import com.kvitkadev.peopledb.model.Page;
 import com.kvitkadev.peopledb.model.Person;
 import com.kvitkadev.peopledb.model.Region;
+import com.kvitkadev.peopledb.query.Criteria;
+import com.kvitkadev.peopledb.query.PersonCriteria;
+import com.kvitkadev.peopledb.query.PersonGrouping;
+import com.kvitkadev.peopledb.query.SalaryAggregation;
+import com.kvitkadev.peopledb.query.SalaryStatistics;
+import com.kvitkadev.peopledb.schema.SchemaBootstrap;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
 
-import java.io.IOException;
 import java.math.BigDecimal;
-import java.nio.file.Files;
 import java.nio.file.Path;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.*;
-import java.time.format.DateTimeFormatter;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Optional;
-
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static com.kvitkadev.peopledb.model.FetchPlan.Association.CHILDREN;
+import static com.kvitkadev.peopledb.model.FetchPlan.Association.HOME_ADDRESS;
+import static com.kvitkadev.peopledb.model.FetchPlan.Association.SPOUSE;
 import static java.util.stream.Collectors.toSet;
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 public class PeopleRepositoryTests {
 
     private Connection connection;
     private PeopleRepository repo;
 
-    private static final DateTimeFormatter dateFormatter = DateTimeFormatter.ofPattern("M/d/yyyy");
-    private static final DateTimeFormatter timeFormatter = DateTimeFormatter.ofPattern("hh:mm:ss a");
-
     @BeforeEach
     void setUp() throws SQLException {
-        connection = DriverManager.getConnection("jdbc:h2:C:\\Users\\lkhranovska\\IdeaProjects\\Recovery\\peopledb");
+        connection = DriverManager.getConnection("jdbc:h2:mem:peopledb");
+        SchemaBootstrap.ensure(connection);
         connection.setAutoCommit(false);
         repo = new PeopleRepository(connection);
     }
@@ -61,6 +85,70 @@ public class PeopleRepositoryTests {
         assertThat(savedPerson1.getId()).isNotEqualTo(savedPerson2.getId());
     }
 
+    @Test
+    public void canSaveAllInBatches() {
+        List<Person> people = List.of(
+                new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))),
+                new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 13, 13, 0, 0, ZoneId.of("-8"))),
+                new Person("Sarah", "Smith", ZonedDateTime.of(1984, 3, 1, 1, 0, 0, 0, ZoneId.of("-8"))));
+        repo.setBatchSize(2);
+        long startCount = repo.count();
+        long savedCount = repo.saveAll(people);
+        assertThat(savedCount).isEqualTo(3);
+        assertThat(repo.count()).isEqualTo(startCount + 3);
+        assertThat(people.stream().map(Person::getId).collect(toSet())).hasSize(3).doesNotContainNull();
+    }
+
+    @Test
+    public void saveAllFlushesSpousesWithEachChunk() {
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        Person mary = new Person("Mary", "Smith", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6")));
+        Person bobby = new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 13, 13, 0, 0, ZoneId.of("-8")));
+        Person sarah = new Person("Sarah", "Smith", ZonedDateTime.of(1984, 3, 1, 1, 0, 0, 0, ZoneId.of("-8")));
+        john.setSpouse(mary);
+        bobby.setSpouse(sarah);
+        MetricsRegistry registry = new MetricsRegistry();
+        repo.setMetrics(registry);
+        repo.setBatchSize(2);
+        long startCount = repo.count();
+
+        assertThat(repo.saveAll(List.of(john, bobby, sarah))).isEqualTo(3);
+
+        assertThat(repo.count()).isEqualTo(startCount + 4);
+        assertThat(repo.findById(john.getId()).get().getSpouse().get().getId()).isEqualTo(mary.getId());
+        assertThat(repo.findById(mary.getId()).get().getSpouse().get().getId()).isEqualTo(john.getId());
+        assertThat(repo.findById(sarah.getId()).get().getSpouse().get().getId()).isEqualTo(bobby.getId());
+        assertThat(registry.snapshot()).anySatisfy(s -> {
+            assertThat(s.operation()).isEqualTo(CrudOperation.SAVE);
+            assertThat(s.batches()).isEqualTo(1);
+            assertThat(s.batchedRows()).isEqualTo(4);
+        });
+    }
+
+    @Test
+    public void saveAllAfterFailedBatchDoesNotReplayStaleRows() throws SQLException {
+        AddressRepository addresses = repo.getAddressRepository();
+        addresses.setBatchSize(10);
+        Stream<Address> failing = Stream.of("1 Stale St.", "2 Stale St.", "Boom")
+                .map(street -> {
+                    if (street.equals("Boom")) throw new IllegalStateException("source failed");
+                    return new Address(null, street, null, "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST);
+                });
+        assertThatThrownBy(() -> addresses.saveAll(failing)).isInstanceOf(IllegalStateException.class);
+
+        Address first = new Address(null, "1 Fresh St.", null, "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST);
+        Address second = new Address(null, "2 Fresh St.", null, "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.EAST);
+        assertThat(addresses.saveAll(List.of(first, second))).isEqualTo(2);
+
+        try (PreparedStatement ps = connection.prepareStatement("SELECT COUNT(*) FROM ADDRESSES WHERE STREET_ADDRESS LIKE '% Stale St.'");
+             ResultSet rs = ps.executeQuery()) {
+            rs.next();
+            assertThat(rs.getLong(1)).isZero();
+        }
+        assertThat(addresses.findById(first.id())).hasValueSatisfying(a -> assertThat(a.streetAddress()).isEqualTo("1 Fresh St."));
+        assertThat(addresses.findById(second.id())).hasValueSatisfying(a -> assertThat(a.streetAddress()).isEqualTo("2 Fresh St."));
+    }
+
     @Test
     public void canSavePersonWithHomeAddress() {
         Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
@@ -104,6 +192,30 @@ public class PeopleRepositoryTests {
 //        connection.commit();
     }
 
+    @Test
+    public void canSaveFamilyGraph() {
+        Address home = new Address(null, "123 Beale St.", "Apt. 1A", "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST);
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        Person mary = new Person("Mary", "Smith", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6")));
+        john.setHomeAddress(home);
+        mary.setHomeAddress(home);
+        john.setSpouse(mary);
+        for (int i = 0; i < 8; i++) {
+            Person child = new Person("Child" + i, "Smith", ZonedDateTime.of(2010 + i, 1, 1, 1, 0, 0, 0, ZoneId.of("-6")));
+            child.setHomeAddress(home);
+            john.addChild(child);
+        }
+
+        repo.save(john);
+
+        Person foundMary = repo.findById(mary.getId(), FetchPlan.all()).get();
+        assertThat(foundMary.getSpouse().get().getId()).isEqualTo(john.getId());
+        assertThat(foundMary.getHomeAddress().get().id()).isEqualTo(home.id());
+        Person foundJohn = repo.findById(john.getId(), FetchPlan.all()).get();
+        assertThat(foundJohn.getSpouse().get().getId()).isEqualTo(mary.getId());
+        assertThat(foundJohn.getChildren()).hasSize(8).allSatisfy(child -> assertThat(child.getHomeAddress().get().id()).isEqualTo(home.id()));
+    }
+
     @Test
     public void canFindPersonById() {
         Person savedPerson = repo.save(new Person("test", "jackson", ZonedDateTime.now()));
@@ -178,6 +290,368 @@ public class PeopleRepositoryTests {
         assertThat(allPeople).containsAll(addedPeople);
     }
 
+    @Test
+    public void reusesCachedStatements() {
+        Person savedPerson = repo.save(new Person("test", "jackson", ZonedDateTime.now()));
+        repo.findById(savedPerson.getId());
+        try (ConnectionLease lease = repo.getConnectionProvider().acquire()) {
+            long hitsBefore = lease.statements().getHits();
+            repo.findById(savedPerson.getId());
+            repo.count();
+            repo.count();
+            assertThat(lease.statements().getHits()).isGreaterThanOrEqualTo(hitsBefore + 2);
+        }
+    }
+
+    @Test
+    public void canStreamAll() {
+        Person p1 = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        Person p2 = repo.save( new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 13, 13, 0, 0, ZoneId.of("-8"))));
+        repo.setFetchSize(1);
+        try (Stream<Person> people = repo.stream()) {
+            List<Person> allPeople = people.toList();
+            assertThat(allPeople).hasSize((int) repo.count()).contains(p1, p2);
+        }
+    }
+
+    @Test
+    public void canCloseStreamOnAnotherThread() throws Exception {
+        repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        repo.save(new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 13, 13, 0, 0, ZoneId.of("-8"))));
+        repo.setFetchSize(1);
+        Stream<Person> people = repo.stream();
+        assertThat(people.iterator().next()).isNotNull();
+
+        CompletableFuture.runAsync(people::close).get(5, TimeUnit.SECONDS);
+
+        assertThat(CompletableFuture.supplyAsync(repo::count).get(5, TimeUnit.SECONDS)).isGreaterThanOrEqualTo(2);
+        assertThat(repo.count()).isGreaterThanOrEqualTo(2);
+    }
+
+    @Test
+    public void canPublishWithBackpressure() throws InterruptedException {
+        Stream.generate(() -> new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))))
+                .limit(5)
+                .forEach(repo::save);
+        List<Person> received = new CopyOnWriteArrayList<>();
+        CountDownLatch cancelled = new CountDownLatch(1);
+
+        repo.publish(2).subscribe(new Flow.Subscriber<>() {
+            private Flow.Subscription subscription;
+
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(1);
+            }
+
+            @Override
+            public void onNext(Person person) {
+                received.add(person);
+                if (received.size() == 3) {
+                    subscription.cancel();
+                    cancelled.countDown();
+                } else {
+                    subscription.request(1);
+                }
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                cancelled.countDown();
+            }
+
+            @Override
+            public void onComplete() {
+                cancelled.countDown();
+            }
+        });
+
+        assertThat(cancelled.await(10, TimeUnit.SECONDS)).isTrue();
+        assertThat(received).hasSize(3);
+        assertThat(repo.count()).isGreaterThanOrEqualTo(5);
+    }
+
+    @Test
+    public void canPageThroughPeopleByKeyset() {
+        Person p1 = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        Person p2 = repo.save( new Person("Bobby", "Smith", ZonedDateTime.of(1982, 9, 13, 13, 13, 0, 0, ZoneId.of("-8"))));
+        Person p3 = repo.save(new Person("Sarah", "Smith", ZonedDateTime.of(1984, 3, 1, 1, 0, 0, 0, ZoneId.of("-8"))));
+
+        Page<Person> first = repo.findPage(p1.getId() - 1, 2, Page.Direction.FORWARD);
+        assertThat(first.content()).containsExactly(p1, p2);
+        assertThat(first.nextCursor()).isEqualTo(p2.getId());
+
+        Page<Person> second = repo.findPage(first.nextCursor(), 2, Page.Direction.FORWARD);
+        assertThat(second.content()).containsExactly(p3);
+        assertThat(second.hasNext()).isFalse();
+
+        Page<Person> backward = repo.findPage(null, 2, Page.Direction.BACKWARD);
+        assertThat(backward.content()).containsExactly(p3, p2);
+    }
+
+    @Test
+    public void canMapQueriesWithDifferentColumnLayouts() {
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        john.setHomeAddress(new Address(null, "123 Beale St.", "Apt. 1A", "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST));
+        Person savedPerson = repo.save(john);
+
+        Person foundPerson = repo.findById(savedPerson.getId()).get();
+        List<Person> allPeople = repo.findAll();
+
+        assertThat(foundPerson.getHomeAddress().get().city()).isEqualTo("Wala Wala");
+        assertThat(foundPerson.getChildren()).isEmpty();
+        assertThat(allPeople).contains(savedPerson).doesNotHaveDuplicates();
+    }
+
+    @Test
+    public void updateEvictsCachedPerson() {
+        repo.setEntityCache(new EntityCache<>(100));
+        Person savedPerson = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        Person cachedPerson = repo.findById(savedPerson.getId()).get();
+        assertThat(repo.findById(savedPerson.getId()).get()).isNotSameAs(cachedPerson).isEqualTo(cachedPerson);
+
+        savedPerson.setSalary(new BigDecimal("73000.28"));
+        repo.update(savedPerson);
+
+        assertThat(repo.findById(savedPerson.getId()).get().getSalary()).isEqualByComparingTo("73000.28");
+        assertThat(repo.getEntityCache().get().stats().hits()).isEqualTo(1);
+    }
+
+    @Test
+    public void cachedPeopleAreNotSharedBetweenCallers() {
+        repo.setEntityCache(new EntityCache<>(100));
+        Person savedPerson = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        Person first = repo.findById(savedPerson.getId()).get();
+        first.setSalary(new BigDecimal("1.00"));
+
+        Person second = repo.findById(savedPerson.getId()).get();
+
+        assertThat(second.getSalary()).isEqualByComparingTo(savedPerson.getSalary());
+        assertThat(second.getChangedProperties()).hasValueSatisfying(changed -> assertThat(changed).isEmpty());
+    }
+
+    @Test
+    public void updatingSpouseEvictsCachedPartner() {
+        repo.setEntityCache(new EntityCache<>(100));
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        Person mary = new Person("Mary", "Smith", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6")));
+        john.setSpouse(mary);
+        repo.save(john);
+        assertThat(repo.findById(john.getId()).get().getSpouse().get().getFirstName()).isEqualTo("Mary");
+
+        mary.setFirstName("Maria");
+        repo.update(mary);
+
+        assertThat(repo.findById(john.getId()).get().getSpouse().get().getFirstName()).isEqualTo("Maria");
+    }
+
+    @Test
+    public void updatingAddressEvictsCachedResidents() {
+        repo.setEntityCache(new EntityCache<>(100));
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        john.setHomeAddress(new Address(null, "123 Beale St.", "Apt. 1A", "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST));
+        repo.save(john);
+        Long addressId = repo.findById(john.getId()).get().getHomeAddress().get().id();
+
+        repo.getAddressRepository().update(new Address(addressId, "456 Pine St.", null, "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST));
+
+        assertThat(repo.findById(john.getId()).get().getHomeAddress().get().streetAddress()).isEqualTo("456 Pine St.");
+    }
+
+    @Test
+    public void sessionMaterializesOneInstancePerId() {
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        Person mary = new Person("Mary", "Smith", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6")));
+        john.setSpouse(mary);
+        repo.save(john);
+
+        try (Session session = Session.open()) {
+            Person foundJohn = repo.findById(john.getId()).get();
+            Person foundMary = repo.findById(mary.getId()).get();
+            assertThat(repo.findById(john.getId()).get()).isSameAs(foundJohn);
+            assertThat(foundJohn.getSpouse().get()).isSameAs(foundMary);
+            assertThat(foundMary.getSpouse().get()).isSameAs(foundJohn);
+        }
+    }
+
+    @Test
+    public void sessionSharesInstancesAcrossFetchPlans() {
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        Person mary = new Person("Mary", "Smith", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6")));
+        Person johnny = new Person("Johnny", "Smith", ZonedDateTime.of(2010, 01, 01, 01, 0, 0, 0, ZoneId.of("-6")));
+        john.setSpouse(mary);
+        john.addChild(johnny);
+        repo.save(john);
+
+        try (Session session = Session.open()) {
+            Person lazyJohn = repo.findById(john.getId(), FetchPlan.none()).get();
+            Person foundJohn = repo.findById(john.getId()).get();
+            Person foundMary = repo.findById(mary.getId(), FetchPlan.of(SPOUSE)).get();
+            Person foundJohnny = repo.findById(johnny.getId()).get();
+
+            assertThat(foundJohn).isSameAs(lazyJohn);
+            assertThat(lazyJohn.getSpouse().get()).isSameAs(foundMary);
+            assertThat(foundMary.getSpouse().get()).isSameAs(lazyJohn);
+            assertThat(lazyJohn.getChildren()).singleElement().isSameAs(foundJohnny);
+        }
+    }
+
+    @Test
+    public void canFindPersonByIdWithFetchPlan() {
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        john.setHomeAddress(new Address(null, "123 Beale St.", "Apt. 1A", "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST));
+        john.setSpouse(new Person("Mary", "Smith", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6"))));
+        john.addChild(new Person("Johnny", "Smith", ZonedDateTime.of(2010, 01, 01, 01, 0, 0, 0, ZoneId.of("-6"))));
+        john.addChild(new Person("Sarah", "Smith", ZonedDateTime.of(2012, 03, 01, 01, 0, 0, 0, ZoneId.of("-6"))));
+        Person savedPerson = repo.save(john);
+
+        Person foundPerson = repo.findById(savedPerson.getId(), FetchPlan.of(HOME_ADDRESS, CHILDREN)).get();
+
+        assertThat(foundPerson.getHomeAddress().get().state()).isEqualTo("WA");
+        assertThat(foundPerson.getChildren().stream().map(Person::getFirstName).collect(toSet())).containsExactlyInAnyOrder("Johnny", "Sarah");
+        assertThat(foundPerson.getBusinessAddress()).isEmpty();
+        assertThat(foundPerson.getSpouse().get().getFirstName()).isEqualTo("Mary");
+    }
+
+    @Test
+    public void canFindAllByIdInRequestOrder() {
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        john.addChild(new Person("Johnny", "Smith", ZonedDateTime.of(2010, 01, 01, 01, 0, 0, 0, ZoneId.of("-6"))));
+        john.addChild(new Person("Sarah", "Smith", ZonedDateTime.of(2012, 03, 01, 01, 0, 0, 0, ZoneId.of("-6"))));
+        Person savedJohn = repo.save(john);
+        Person savedMary = repo.save(new Person("Mary", "Smith", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6"))));
+        repo.setLookupChunkSize(2);
+
+        LookupResult<Person> result = repo.findAllById(List.of(savedMary.getId(), -1L, savedJohn.getId(), savedMary.getId()));
+
+        assertThat(result.found()).extracting(Person::getId).containsExactly(savedMary.getId(), savedJohn.getId());
+        assertThat(result.found().get(1).getChildren()).hasSize(2);
+        assertThat(result.missingIds()).containsExactly(-1L);
+    }
+
+    @Test
+    public void canFindAllByIdAsync() {
+        List<Person> people = Stream.generate(() -> new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))))
+                .limit(7)
+                .toList();
+        repo.saveAll(people);
+        List<Long> ids = people.stream().map(Person::getId).sorted(Comparator.reverseOrder()).toList();
+
+        try (AsyncPeopleRepository async = new AsyncPeopleRepository(repo)) {
+            async.setFanOutChunkSize(3);
+            LookupResult<Person> result = async.findAllByIdAsync(ids).join();
+
+            assertThat(result.found()).extracting(Person::getId).containsExactlyElementsOf(ids);
+            assertThat(async.countAsync().join()).isEqualTo(repo.count());
+        }
+    }
+
+    @Test
+    public void reusesEqualAddressesWhenDeduplicating() {
+        repo.getAddressRepository().setDeduplicationCacheSize(100);
+        Person john = new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        john.setBusinessAddress(new Address(null, "123 Beale St.", "Apt. 1A", "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST));
+        Person mary = new Person("Mary", "Smith", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6")));
+        mary.setBusinessAddress(new Address(null, " 123  Beale St. ", "Apt. 1A", "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST));
+
+        repo.save(john);
+        repo.getAddressRepository().clearDeduplicationCache();
+        repo.save(mary);
+
+        assertThat(mary.getBusinessAddress().get().id()).isEqualTo(john.getBusinessAddress().get().id());
+    }
+
+    @Test
+    public void deduplicationKeepsAddressAsPassedAndLooksUpByIndex() throws SQLException {
+        AddressRepository addresses = repo.getAddressRepository();
+        addresses.setDeduplicationCacheSize(100);
+        Address spaced = addresses.saveOrReuse(new Address(null, " 9  Spaced Row ", null, "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST));
+        addresses.clearDeduplicationCache();
+        Address trimmed = addresses.saveOrReuse(new Address(null, "9 Spaced Row", null, "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST));
+
+        assertThat(trimmed.id()).isEqualTo(spaced.id());
+        assertThat(addresses.findById(spaced.id()).get().streetAddress()).isEqualTo(" 9  Spaced Row ");
+        try (PreparedStatement ps = connection.prepareStatement("EXPLAIN " + AddressRepository.FIND_ID_BY_CONTENT_SQL)) {
+            ps.setString(1, "0".repeat(64));
+            try (ResultSet rs = ps.executeQuery()) {
+                rs.next();
+                assertThat(rs.getString(1)).contains("UX_ADDRESSES_CONTENT_KEY");
+            }
+        }
+    }
+
+    @Test
+    public void recordsOperationMetrics() {
+        MetricsRegistry registry = new MetricsRegistry();
+        repo.setMetrics(registry);
+        List<Person> people = Stream.generate(() -> new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))))
+                .limit(5)
+                .toList();
+        repo.saveAll(people);
+        repo.findById(people.get(0).getId());
+
+        List<MetricsRegistry.OperationStats> stats = registry.snapshot();
+
+        assertThat(stats).anySatisfy(s -> {
+            assertThat(s.operation()).isEqualTo(CrudOperation.SAVE);
+            assertThat(s.rows()).isEqualTo(5);
+            assertThat(s.maxBatchSize()).isEqualTo(5);
+        });
+        assertThat(stats).anySatisfy(s -> {
+            assertThat(s.operation()).isEqualTo(CrudOperation.FIND_BY_ID);
+            assertThat(s.executions()).isEqualTo(1);
+            assertThat(s.rows()).isEqualTo(1);
+            assertThat(s.errors()).isZero();
+        });
+        assertThat(registry.dump()).contains("PeopleRepository", "FIND_BY_ID");
+    }
+
+    @Test
+    public void logsSlowQueriesWithPlanOncePerFingerprint() {
+        long startCount = repo.count();
+        SlowQueryLog slowQueryLog = new SlowQueryLog(Duration.ZERO, 4);
+        repo.setSlowQueryLog(slowQueryLog);
+        Person savedPerson = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        repo.findById(savedPerson.getId());
+        slowQueryLog.setRedactParameters(true);
+        repo.findById(savedPerson.getId());
+
+        List<SlowQueryLog.SlowQuery> findById = slowQueryLog.entries().stream()
+                .filter(query -> query.operation() == CrudOperation.FIND_BY_ID)
+                .toList();
+
+        assertThat(findById).hasSize(2);
+        assertThat(findById.get(0).parameters()).containsExactly(savedPerson.getId().toString());
+        assertThat(findById.get(1).parameters()).containsExactly("***");
+        assertThat(findById.get(0).plan()).hasValueSatisfying(plan -> assertThat(plan).contains("PEOPLE", "PARENT_ID"));
+        assertThat(findById.get(1).plan()).isEqualTo(findById.get(0).plan());
+        assertThat(slowQueryLog.entries()).anySatisfy(query -> {
+            assertThat(query.operation()).isEqualTo(CrudOperation.SAVE);
+            assertThat(query.plan()).hasValueSatisfying(plan -> assertThat(plan).startsWith("INSERT"));
+        });
+        assertThat(repo.count()).isEqualTo(startCount + 1);
+    }
+
+    @Test
+    public void slowQueryLogAnalyzesQueriesOnlyWhenAsked() {
+        Person savedPerson = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        SlowQueryLog slowQueryLog = new SlowQueryLog(Duration.ZERO);
+        repo.setSlowQueryLog(slowQueryLog);
+
+        repo.findById(savedPerson.getId());
+        try (Stream<Person> people = repo.stream()) {
+            assertThat(people).isNotEmpty();
+        }
+        assertThat(slowQueryLog.entries()).extracting(SlowQueryLog.SlowQuery::operation).containsExactly(CrudOperation.FIND_BY_ID);
+        assertThat(slowQueryLog.entries().get(0).plan()).hasValueSatisfying(plan -> assertThat(plan).doesNotContain("scanCount"));
+
+        slowQueryLog.clear();
+        slowQueryLog.setExplainAnalyze(true);
+        repo.findById(savedPerson.getId());
+        assertThat(slowQueryLog.entries().get(0).plan()).hasValueSatisfying(plan -> assertThat(plan).contains("scanCount"));
+    }
+
     @Test
     public void testPersonIdNotFound() {
         Optional<Person> foundPerson = repo.findById(-1L);
@@ -212,6 +686,90 @@ public class PeopleRepositoryTests {
         assertThat(endCount).isEqualTo(startCount - 2);
     }
 
+    @Test
+    public void canDeleteAllByIdInChunks() {
+        List<Person> people = Stream.generate(() -> new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))))
+                .limit(25)
+                .toList();
+        repo.saveAll(people);
+        long startCount = repo.count();
+        repo.setDeleteChunkSize(10);
+
+        long deleted = repo.deleteAllById(people.stream().map(Person::getId).toList());
+
+        assertThat(deleted).isEqualTo(25);
+        assertThat(repo.count()).isEqualTo(startCount - 25);
+    }
+
+    @Test
+    public void canDeleteWhere() {
+        repo.save(new Person("John", "Deletable", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        repo.save(new Person("Mary", "Deletable", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6"))));
+        long startCount = repo.count();
+
+        long deleted = repo.deleteWhere(PersonCriteria.lastNameIs("Deletable"));
+
+        assertThat(deleted).isEqualTo(2);
+        assertThat(repo.count()).isEqualTo(startCount - 2);
+    }
+
+    @Test
+    public void canQueryByCriteria() {
+        Person john = new Person("John", "Criterion", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6")));
+        john.setSalary(new BigDecimal("50000"));
+        john.setHomeAddress(new Address(null, "123 Beale St.", "Apt. 1A", "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST));
+        repo.save(john);
+        Person mary = new Person("Mary", "Criterion", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("-6")));
+        mary.setSalary(new BigDecimal("90000"));
+        repo.save(mary);
+        Criteria<Person> criterions = PersonCriteria.lastNameStartsWith("Criter");
+
+        List<Person> wellPaid = repo.findWhere(criterions.and(PersonCriteria.salaryAtLeast(new BigDecimal("60000"))), 10);
+
+        assertThat(wellPaid).extracting(Person::getFirstName).containsExactly("Mary");
+        assertThat(repo.count(criterions)).isEqualTo(2);
+        assertThat(repo.exists(criterions.and(PersonCriteria.homeRegionIs(Region.WEST)))).isTrue();
+        assertThat(repo.exists(criterions.and(PersonCriteria.bornBetween(
+                ZonedDateTime.of(1990, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")),
+                ZonedDateTime.of(2000, 1, 1, 0, 0, 0, 0, ZoneId.of("+0")))))).isFalse();
+    }
+
+    @Test
+    public void canAggregateSalariesByRegionAndBirthYear() {
+        Address west = new Address(null, "123 Beale St.", "Apt. 1A", "Wala Wala", "WA", "90210", "United States", "Fulton County", Region.WEST);
+        Person john = new Person("John", "Aggregate", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("+0")));
+        john.setSalary(new BigDecimal("50000"));
+        john.setHomeAddress(west);
+        Person jane = new Person("Jane", "Aggregate", ZonedDateTime.of(1980, 3, 1, 10, 0, 0, 0, ZoneId.of("+0")));
+        jane.setSalary(new BigDecimal("70000"));
+        jane.setHomeAddress(west);
+        Person mary = new Person("Mary", "Aggregate", ZonedDateTime.of(1975, 10, 10, 10, 10, 0, 0, ZoneId.of("+0")));
+        mary.setSalary(new BigDecimal("90000"));
+        repo.save(john);
+        repo.save(jane);
+        repo.save(mary);
+
+        List<SalaryStatistics> statistics = repo.aggregateSalaries(
+                SalaryAggregation.groupBy(PersonGrouping.HOME_REGION, PersonGrouping.BIRTH_YEAR)
+                        .where(PersonCriteria.lastNameIs("Aggregate"))
+                        .withPercentiles(0.5));
+
+        assertThat(statistics).hasSize(2);
+        SalaryStatistics noHome = statistics.get(0);
+        assertThat(noHome.group(PersonGrouping.HOME_REGION)).isNull();
+        assertThat(noHome.group(PersonGrouping.BIRTH_YEAR)).isEqualTo(1975);
+        assertThat(noHome.headcount()).isEqualTo(1);
+        SalaryStatistics west1980 = statistics.get(1);
+        assertThat(west1980.group(PersonGrouping.HOME_REGION)).isEqualTo(Region.WEST);
+        assertThat(west1980.group(PersonGrouping.BIRTH_YEAR)).isEqualTo(1980);
+        assertThat(west1980.headcount()).isEqualTo(2);
+        assertThat(west1980.sum()).isEqualByComparingTo("120000");
+        assertThat(west1980.average()).isEqualByComparingTo("60000");
+        assertThat(west1980.min()).isEqualByComparingTo("50000");
+        assertThat(west1980.max()).isEqualByComparingTo("70000");
+        assertThat(west1980.percentile(0.5)).isEqualByComparingTo("60000");
+    }
+
     @Test
     public void canUpdate() {
         Person savedPerson = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
@@ -225,25 +783,47 @@ public class PeopleRepositoryTests {
     }
 
 
+    @Test
+    public void updateWritesOnlyChangedColumns() {
+        Person savedPerson = repo.save(new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))));
+        Person salaryCopy = repo.findById(savedPerson.getId()).get();
+        Person nameCopy = repo.findById(savedPerson.getId()).get();
+        salaryCopy.setSalary(new BigDecimal("73000.28"));
+        nameCopy.setFirstName("Johnny");
+
+        repo.update(salaryCopy);
+        repo.update(nameCopy);
+
+        Person found = repo.findById(savedPerson.getId()).get();
+        assertThat(found.getSalary()).isEqualByComparingTo("73000.28");
+        assertThat(found.getFirstName()).isEqualTo("Johnny");
+        assertThat(found.getChangedProperties()).contains(Set.of());
+    }
+
+    @Test
+    public void canUpdateAllInBatches() {
+        List<Person> people = Stream.generate(() -> new Person("John", "Smith", ZonedDateTime.of(1980, 11, 15, 15, 15, 0, 0, ZoneId.of("-6"))))
+                .limit(25)
+                .toList();
+        repo.saveAll(people);
+        repo.setBatchSize(10);
+        people.forEach(person -> person.setSalary(new BigDecimal("1000.00")));
+        people.get(0).setLastName("Smythe");
+
+        long written = repo.updateAll(people);
+
+        assertThat(written).isEqualTo(25);
+        assertThat(repo.findById(people.get(24).getId()).get().getSalary()).isEqualByComparingTo("1000.00");
+        assertThat(repo.findById(people.get(0).getId()).get().getLastName()).isEqualTo("Smythe");
+        assertThat(repo.updateAll(people)).isZero();
+    }
+
     @Test
     @Disabled
-    public void loadData() throws IOException, SQLException {
-        Files.lines(Path.of("C:\\Users\\lkhranovska\\Downloads\\Hr5m\\Hr5m.csv"))
-//                .limit(100)
-                .skip(1)
-                .map(s -> s.split(","))
-                .map(s -> {
-                    Person person = new Person(s[2], s[4],
-                            ZonedDateTime.of(
-                                    LocalDateTime.of(LocalDate.parse(s[10], dateFormatter),
-                                            LocalTime.parse(s[11], timeFormatter)),
-                                    ZoneId.of("+0")));
-                    person.setSalary(new BigDecimal(s[25]));
-                    person.setEmail(s[6]);
-                    return person;
-                })
-                .forEach(p -> repo.save(p));
-        connection.commit();
+    public void loadData() {
+        CsvIngestionPipeline pipeline = new CsvIngestionPipeline(connection);
+        pipeline.setProgressListener(System.out::println);
+        pipeline.ingest(Path.of("C:\\Users\\lkhranovska\\Downloads\\Hr5m\\Hr5m.csv"));
     }
 
 }
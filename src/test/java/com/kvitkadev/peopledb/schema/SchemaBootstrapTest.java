@@ -0,0 +1,46 @@
+package com.kvitkadev.peopledb.schema;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SchemaBootstrapTest {
+    private Connection connection;
+
+    @BeforeEach
+    void setUp() throws SQLException {
+        connection = DriverManager.getConnection("jdbc:h2:mem:schema-bootstrap");
+    }
+
+    @AfterEach
+    void tearDown() throws SQLException {
+        connection.close();
+    }
+
+    @Test
+    public void createIsIdempotent() {
+        SchemaBootstrap.create(connection);
+        SchemaBootstrap.create(connection);
+
+        assertThat(SchemaBootstrap.findMissingIndexes(connection)).isEmpty();
+    }
+
+    @Test
+    public void reportsMissingIndexes() throws SQLException {
+        SchemaBootstrap.create(connection);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("DROP INDEX IDX_PEOPLE_PARENT_ID");
+        }
+
+        assertThat(SchemaBootstrap.findMissingIndexes(connection))
+                .extracting(SchemaBootstrap.IndexSpec::name)
+                .containsExactly("IDX_PEOPLE_PARENT_ID");
+    }
+}